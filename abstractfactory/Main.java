@@ -1,5 +1,17 @@
 package abstractfactory;
 
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
+
 /**
  * 
  * There are 2 types of bookings: Zumba and Badminton,
@@ -24,85 +36,309 @@ package abstractfactory;
  * 
  * Basic idea: We want to construct an AbstractFactory to produce either a PremiumFactory or a StandardFactory
  * 
+ * For imports there is also a batch version, buildAll, which takes one array per argument
+ * (a column each) and looks the factory and the booking type up only when they change
+ * from one row to the next.
+ * 
+ * To keep millions of bookings in memory, BookingStore holds them column by column
+ * (rooms in an int array, kind and tier in byte arrays, ids and phones/emails UTF-8 encoded
+ * in one shared byte array) instead of as one object per booking.
+ * 
  */
 
 public class Main {
-    public static void main(String[] args) {
+    public static void main(String[] args) throws InterruptedException {
+        if (args.length > 0 && args[0].equals("bench")) {
+            benchmark(args.length > 1 ? Integer.parseInt(args[1]) : 10_000_000);
+            return;
+        }
+        // first, while no factory has been created yet, so that the threads race on the first access
+        stressTest(16, 200_000);
+
         Booking b = AbstractFactory.getFactory("Premium").build("Zumba", "ABC123", 10, "0386315741");
         assert (b instanceof ZumbaPremiumBooking);
+        assert AbstractFactory.getFactory("Standard").build("Badminton", "DEF456", 3, "a@b.c") instanceof BadmintonStandardBooking;
+        assert AbstractFactory.getFactory("Premium").build("Tennis", "GHI789", 1, "") == null;
+
+        Booking[] batch = AbstractFactory.buildAll(
+                new String[] { "Premium", "Premium", "Standard", "Gold" },
+                new String[] { "Zumba", "Badminton", "Badminton", "Zumba" },
+                new String[] { "A1", "A2", "A3", "A4" },
+                new int[] { 1, 2, 3, 4 },
+                new String[] { "0123", "0456", "x@y.z", "?" }, true);
+        assert batch[0] instanceof ZumbaPremiumBooking && batch[1] instanceof BadmintonPremiumBooking;
+        assert batch[2] instanceof BadmintonStandardBooking && ((BadmintonStandardBooking) batch[2]).courtRoom == 3;
+        assert batch[3] == null;
+
+        BookingStore store = new BookingStore(2);
+        store.add("Premium", "Zumba", "ABC123", 10, "0386315741");
+        store.add(batch[2]);
+        store.add("Standard", "Zumba", "GHI789", 7, "z@u.m");
+        assert store.size() == 3 && store.room(1) == 3 && store.idEquals(2, "GHI789");
+        assert store.view(0) instanceof ZumbaPremiumBooking && ((ZumbaPremiumBooking) store.view(0)).phone.equals("0386315741");
+        Booking copy = store.get(1);
+        assert copy instanceof BadmintonStandardBooking && copy.id.equals("A3") && ((BadmintonStandardBooking) copy).email.equals("x@y.z");
+        assert AbstractFactory.getFactory("Gold") == null;
+
+        // the arena doubles as long as that fits into an int, then takes the rest, then refuses
+        assert BookingStore.grownLength(1 << 20, (1 << 20) + 5) == 1 << 21;
+        assert BookingStore.grownLength(1 << 30, (1L << 30) + 5) == BookingStore.MAX_ARRAY;
+        assert BookingStore.grownLength(1 << 20, 1L << 22) == 1 << 22;
+        try {
+            BookingStore.grownLength(BookingStore.MAX_ARRAY, BookingStore.MAX_ARRAY + 1L);
+            assert false;
+        } catch (IllegalStateException expected) {
+        }
         System.out.println("All assertions passed!");
     }
-}
 
-abstract class AbstractFactory {
-    static AbstractFactory getFactory(String type) {
-        switch (type) {
-            case "Premium": return PremiumFactory.getFactory();
-            case "Standard": return StandardFactory.getFactory();
-            default: return null;
+    // Many threads ask for the factories at the same time and build bookings with them
+    static void stressTest(int threads, int bookingsPerThread) throws InterruptedException {
+        Set<AbstractFactory> seen = Collections.newSetFromMap(new ConcurrentHashMap<>());
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicLong built = new AtomicLong();
+        Thread[] workers = new Thread[threads];
+        for (int i = 0; i < threads; ++i) {
+            String tier = i % 2 == 0 ? "Premium" : "Standard";
+            workers[i] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                seen.add(PremiumFactory.getFactory());
+                seen.add(StandardFactory.getFactory());
+                long n = 0;
+                for (int k = 0; k < bookingsPerThread; ++k) {
+                    AbstractFactory f = AbstractFactory.getFactory(tier);
+                    seen.add(f);
+                    if (f.build((k & 1) == 0 ? "Badminton" : "Zumba", "ID", k, "info") != null) ++n;
+                }
+                built.addAndGet(n);
+            });
+            workers[i].start();
         }
+        long t0 = System.nanoTime();
+        start.countDown();
+        for (Thread w : workers) w.join();
+        long elapsed = System.nanoTime() - t0;
+        assert seen.size() == 2 : "factories constructed more than once: " + seen.size();
+        assert built.get() == (long) threads * bookingsPerThread;
+        System.out.printf("%d threads built %d bookings, %.1f M bookings/s%n",
+                threads, built.get(), built.get() * 1e3 / elapsed);
     }
-    abstract Booking build(String type, String id, int room, String info);
-}
 
-class PremiumFactory extends AbstractFactory {
-    private static PremiumFactory self;
-    private PremiumFactory() {}
-    static PremiumFactory getFactory() {
-        if (self == null) {
-            self = new PremiumFactory();
+    static void benchmark(int n) throws InterruptedException {
+        String[] tiers = { "Premium", "Standard" };
+        String[] types = { "Badminton", "Zumba" };
+        AbstractFactory premium = AbstractFactory.getFactory("Premium");
+        for (int round = 0; round < 5; ++round) {
+            long sink = 0;
+            long t0 = System.nanoTime();
+            for (int i = 0; i < n; ++i) {
+                sink += AbstractFactory.getFactory(tiers[i & 1]).build(types[(i >> 1) & 1], "ID", i, "info").id.length();
+            }
+            long t1 = System.nanoTime();
+            for (int i = 0; i < n; ++i) {
+                sink += premium.build(types[(i >> 1) & 1], "ID", i, "info").id.length();
+            }
+            long t2 = System.nanoTime();
+            System.out.printf("round %d: getFactory + build %.1f ns/op, build on a known factory %.1f ns/op (%d)%n",
+                    round, (t1 - t0) / (double) n, (t2 - t1) / (double) n, sink);
         }
-        return self;
+        int threads = Runtime.getRuntime().availableProcessors();
+        stressTest(threads, n / threads);
+        benchmarkBatch(n);
+        benchmarkStore(n);
     }
-    Booking build(String type, String id, int room, String info) {
-        switch (type) {
-            case "Badminton": {
-                BadmintonPremiumBooking b = new BadmintonPremiumBooking();
-                b.id = id;
-                b.courtRoom = room;
-                b.phone = info;
-                return b;
-            }
-            case "Zumba": {
-                ZumbaPremiumBooking b = new ZumbaPremiumBooking();
-                b.id = id;
-                b.classRoom = room;
-                b.phone = info;
-                return b;
+
+    static long usedMemory() {
+        Runtime rt = Runtime.getRuntime();
+        for (int i = 0; i < 3; ++i) System.gc();
+        return rt.totalMemory() - rt.freeMemory();
+    }
+
+    // heap used by n bookings as objects vs. in a BookingStore
+    static void benchmarkStore(int n) {
+        String[] tiers = { "Premium", "Standard" };
+        String[] types = { "Badminton", "Zumba" };
+        long before = usedMemory();
+        Booking[] objects = new Booking[n];
+        for (int i = 0; i < n; ++i) {
+            objects[i] = AbstractFactory.getFactory(tiers[i & 1]).build(types[(i >> 1) & 1], "ID" + i, i, "user" + i + "@mail.com");
+        }
+        long objectBytes = usedMemory() - before;
+        objects = null;
+        before = usedMemory();
+        BookingStore store = new BookingStore(n);
+        for (int i = 0; i < n; ++i) store.add(tiers[i & 1], types[(i >> 1) & 1], "ID" + i, i, "user" + i + "@mail.com");
+        long storeBytes = usedMemory() - before;
+        System.out.printf("%d bookings: objects %d bytes/booking, BookingStore %d bytes/booking%n",
+                n, objectBytes / n, storeBytes / n);
+        long sink = 0;
+        long t0 = System.nanoTime();
+        for (int i = 0; i < n; ++i) sink += store.room(i) + store.kind(i);
+        long t1 = System.nanoTime();
+        System.out.printf("column scan %.1f ns/booking (%d)%n", (t1 - t0) / (double) n, sink);
+    }
+
+    // an import: rows sorted by tier and type, as they usually come out of an export
+    static void benchmarkBatch(int n) {
+        String[] tiers = new String[n], types = new String[n], ids = new String[n], infos = new String[n];
+        int[] rooms = new int[n];
+        for (int i = 0; i < n; ++i) {
+            tiers[i] = i < n / 2 ? "Premium" : "Standard";
+            types[i] = (i / 1000) % 2 == 0 ? "Badminton" : "Zumba";
+            ids[i] = "ID";
+            rooms[i] = i;
+            infos[i] = "info";
+        }
+        for (int round = 0; round < 5; ++round) {
+            long t0 = System.nanoTime();
+            Booking[] perCall = new Booking[n];
+            for (int i = 0; i < n; ++i) {
+                perCall[i] = AbstractFactory.getFactory(tiers[i]).build(types[i], ids[i], rooms[i], infos[i]);
             }
-            default: return null;
+            long t1 = System.nanoTime();
+            Booking[] batch = AbstractFactory.buildAll(tiers, types, ids, rooms, infos, false);
+            long t2 = System.nanoTime();
+            Booking[] parallel = AbstractFactory.buildAll(tiers, types, ids, rooms, infos, true);
+            long t3 = System.nanoTime();
+            assert perCall[n - 1].getClass() == batch[n - 1].getClass() && batch[n - 1].getClass() == parallel[n - 1].getClass();
+            System.out.printf("round %d: per call %.1f, buildAll %.1f, parallel buildAll %.1f M bookings/s%n", round,
+                    n * 1e3 / (t1 - t0), n * 1e3 / (t2 - t1), n * 1e3 / (t3 - t2));
         }
     }
 }
 
-class StandardFactory extends AbstractFactory {
-    private static StandardFactory self;
-    private StandardFactory() {}
-    static StandardFactory getFactory() {
-        if (self == null) {
-            self = new StandardFactory();
-        }
-        return self;
+// Creates one kind of booking, e.g. the "Zumba" booking of a PremiumFactory
+interface BookingBuilder {
+    Booking build(String id, int room, String info);
+}
+
+/**
+ * Both the tier registry (getFactory) and the booking builders of each factory are plain maps
+ * that are filled once during class initialization and only read afterwards, so lookups
+ * need no locking. The singletons use the holder idiom: the JVM initializes the Holder
+ * class (and thus the instance) exactly once, on first use, even under contention.
+ */
+abstract class AbstractFactory {
+    static AbstractFactory getFactory(String type) {
+        return Registry.FACTORIES.get(type);
     }
+
     Booking build(String type, String id, int room, String info) {
-        switch (type) {
-            case "Badminton": {
-                BadmintonStandardBooking b = new BadmintonStandardBooking();
-                b.id = id;
-                b.courtRoom = room;
-                b.email = info;
-                return b;
+        BookingBuilder builder = builders.get(type);
+        return builder == null ? null : builder.build(id, room, info);
+    }
+
+    // result[i] = build(types[i], ids[i], rooms[i], infos[i])
+    Booking[] buildAll(String[] types, String[] ids, int[] rooms, String[] infos, boolean parallel) {
+        return buildAll(this, null, types, ids, rooms, infos, parallel);
+    }
+
+    // result[i] = getFactory(tiers[i]).build(types[i], ids[i], rooms[i], infos[i]), null for unknown tiers or types
+    static Booking[] buildAll(String[] tiers, String[] types, String[] ids, int[] rooms, String[] infos, boolean parallel) {
+        if (tiers.length != types.length) throw new IllegalArgumentException("All columns must have the same length");
+        return buildAll(null, tiers, types, ids, rooms, infos, parallel);
+    }
+
+    private static final int PARTITION = 1 << 14;
+
+    private static Booking[] buildAll(AbstractFactory factory, String[] tiers, String[] types, String[] ids,
+                                      int[] rooms, String[] infos, boolean parallel) {
+        int n = types.length;
+        if (ids.length != n || rooms.length != n || infos.length != n) {
+            throw new IllegalArgumentException("All columns must have the same length");
+        }
+        Booking[] result = new Booking[n];
+        IntStream partitions = IntStream.range(0, (n + PARTITION - 1) / PARTITION);
+        if (parallel) partitions = partitions.parallel();
+        partitions.forEach(p -> buildRange(factory, tiers, types, ids, rooms, infos, result,
+                p * PARTITION, Math.min(n, (p + 1) * PARTITION)));
+        return result;
+    }
+
+    // the factory and builder are only looked up again when the tier or type differs from the previous row
+    private static void buildRange(AbstractFactory factory, String[] tiers, String[] types, String[] ids,
+                                   int[] rooms, String[] infos, Booking[] result, int from, int to) {
+        String tier = null, type = null;
+        BookingBuilder builder = null;
+        boolean resolveType = true;
+        for (int i = from; i < to; ++i) {
+            if (tiers != null && (i == from || !Objects.equals(tiers[i], tier))) {
+                tier = tiers[i];
+                factory = getFactory(tier);
+                resolveType = true;
             }
-            case "Zumba": {
-                ZumbaStandardBooking b = new ZumbaStandardBooking();
-                b.id = id;
-                b.classRoom = room;
-                b.email = info;
-                return b;
+            if (resolveType || !Objects.equals(types[i], type)) {
+                type = types[i];
+                builder = factory == null ? null : factory.builders.get(type);
+                resolveType = false;
             }
-            default: return null;
+            result[i] = builder == null ? null : builder.build(ids[i], rooms[i], infos[i]);
         }
     }
+
+    private static class Registry {
+        static final Map<String, AbstractFactory> FACTORIES = new HashMap<>();
+        static {
+            FACTORIES.put("Premium", PremiumFactory.getFactory());
+            FACTORIES.put("Standard", StandardFactory.getFactory());
+        }
+    }
+
+    final Map<String, BookingBuilder> builders = new HashMap<>();
+}
+
+class PremiumFactory extends AbstractFactory {
+    private static class Holder {
+        static final PremiumFactory INSTANCE = new PremiumFactory();
+    }
+    private PremiumFactory() {
+        builders.put("Badminton", (id, room, info) -> {
+            BadmintonPremiumBooking b = new BadmintonPremiumBooking();
+            b.id = id;
+            b.courtRoom = room;
+            b.phone = info;
+            return b;
+        });
+        builders.put("Zumba", (id, room, info) -> {
+            ZumbaPremiumBooking b = new ZumbaPremiumBooking();
+            b.id = id;
+            b.classRoom = room;
+            b.phone = info;
+            return b;
+        });
+    }
+    static PremiumFactory getFactory() {
+        return Holder.INSTANCE;
+    }
+}
+
+class StandardFactory extends AbstractFactory {
+    private static class Holder {
+        static final StandardFactory INSTANCE = new StandardFactory();
+    }
+    private StandardFactory() {
+        builders.put("Badminton", (id, room, info) -> {
+            BadmintonStandardBooking b = new BadmintonStandardBooking();
+            b.id = id;
+            b.courtRoom = room;
+            b.email = info;
+            return b;
+        });
+        builders.put("Zumba", (id, room, info) -> {
+            ZumbaStandardBooking b = new ZumbaStandardBooking();
+            b.id = id;
+            b.classRoom = room;
+            b.email = info;
+            return b;
+        });
+    }
+    static StandardFactory getFactory() {
+        return Holder.INSTANCE;
+    }
 }
 
 abstract class Booking {
@@ -132,3 +368,160 @@ class ZumbaPremiumBooking extends ZumbaBooking {
 class ZumbaStandardBooking extends ZumbaBooking {
     public String email;
 }
+
+/**
+ * Bookings stored as columns. Row i is described by rooms[i], kinds[i], tiers[i] and two UTF-8
+ * slices of the shared `bytes` arena: the id is bytes[offsets[2i] .. offsets[2i+1]) and the
+ * phone/email is bytes[offsets[2i+1] .. offsets[2i+2]).
+ * The accessors read single columns without allocating; view(i) fills a reused Booking of the
+ * right class (valid until the next call to view), get(i) builds an independent copy.
+ * Offsets are ints, so the arena holds at most MAX_ARRAY bytes (about 2 GB) of ids and phones/emails.
+ */
+class BookingStore {
+    static final String[] TIERS = { "Premium", "Standard" };
+    static final String[] TYPES = { "Badminton", "Zumba" };
+    static final byte PREMIUM = 0, STANDARD = 1;
+    static final byte BADMINTON = 0, ZUMBA = 1;
+    // the largest array the JVM reliably allocates
+    static final int MAX_ARRAY = Integer.MAX_VALUE - 8;
+
+    BookingStore(int expectedSize) {
+        int capacity = Math.max(expectedSize, 16);
+        if (capacity > MAX_ROWS) throw new IllegalArgumentException("At most " + MAX_ROWS + " bookings fit into a BookingStore");
+        rooms = new int[capacity];
+        kinds = new byte[capacity];
+        tiers = new byte[capacity];
+        offsets = new int[2 * capacity + 1];
+        bytes = new byte[(int) Math.min(16L * capacity, MAX_ARRAY)];
+    }
+
+    // two offsets per row and one more must fit into an array
+    private static final int MAX_ROWS = (MAX_ARRAY - 1) / 2;
+
+    int add(String tier, String type, String id, int room, String info) {
+        return add(code(TIERS, tier), code(TYPES, type), id, room, info);
+    }
+
+    int add(Booking b) {
+        if (b instanceof BadmintonPremiumBooking) {
+            BadmintonPremiumBooking x = (BadmintonPremiumBooking) b;
+            return add(PREMIUM, BADMINTON, x.id, x.courtRoom, x.phone);
+        }
+        if (b instanceof BadmintonStandardBooking) {
+            BadmintonStandardBooking x = (BadmintonStandardBooking) b;
+            return add(STANDARD, BADMINTON, x.id, x.courtRoom, x.email);
+        }
+        if (b instanceof ZumbaPremiumBooking) {
+            ZumbaPremiumBooking x = (ZumbaPremiumBooking) b;
+            return add(PREMIUM, ZUMBA, x.id, x.classRoom, x.phone);
+        }
+        if (b instanceof ZumbaStandardBooking) {
+            ZumbaStandardBooking x = (ZumbaStandardBooking) b;
+            return add(STANDARD, ZUMBA, x.id, x.classRoom, x.email);
+        }
+        throw new IllegalArgumentException("Unknown kind of booking: " + b.getClass().getSimpleName());
+    }
+
+    private int add(byte tier, byte kind, String id, int room, String info) {
+        if (size == rooms.length) grow();
+        int i = size++;
+        rooms[i] = room;
+        kinds[i] = kind;
+        tiers[i] = tier;
+        int end = offsets[2 * i];
+        end = append(id, end);
+        offsets[2 * i + 1] = end;
+        offsets[2 * i + 2] = append(info, end);
+        return i;
+    }
+
+    private int append(String s, int at) {
+        byte[] encoded = s.getBytes(StandardCharsets.UTF_8);
+        if (at + (long) encoded.length > bytes.length) bytes = Arrays.copyOf(bytes, grownLength(bytes.length, at + (long) encoded.length));
+        System.arraycopy(encoded, 0, bytes, at, encoded.length);
+        return at + encoded.length;
+    }
+
+    // twice the length, but at least `needed` and at most MAX_ARRAY
+    static int grownLength(int length, long needed) {
+        if (needed > MAX_ARRAY) {
+            throw new IllegalStateException("BookingStore is full: ids and phones/emails take more than " + MAX_ARRAY + " bytes");
+        }
+        return (int) Math.min(Math.max(2L * length, needed), MAX_ARRAY);
+    }
+
+    private void grow() {
+        if (rooms.length == MAX_ROWS) throw new IllegalStateException("BookingStore is full: " + MAX_ROWS + " bookings");
+        int capacity = (int) Math.min(2L * rooms.length, MAX_ROWS);
+        rooms = Arrays.copyOf(rooms, capacity);
+        kinds = Arrays.copyOf(kinds, capacity);
+        tiers = Arrays.copyOf(tiers, capacity);
+        offsets = Arrays.copyOf(offsets, 2 * capacity + 1);
+    }
+
+    private static byte code(String[] names, String name) {
+        for (byte i = 0; i < names.length; ++i) if (names[i].equals(name)) return i;
+        throw new IllegalArgumentException("Unknown value: " + name);
+    }
+
+    int size() { return size; }
+    int room(int i) { return rooms[i]; }
+    byte kind(int i) { return kinds[i]; }
+    byte tier(int i) { return tiers[i]; }
+    String id(int i) { return text(2 * i); }
+    String info(int i) { return text(2 * i + 1); }
+
+    private String text(int slice) {
+        return new String(bytes, offsets[slice], offsets[slice + 1] - offsets[slice], StandardCharsets.UTF_8);
+    }
+
+    // compares byte by byte as long as the id is ASCII, without decoding it into a String
+    boolean idEquals(int i, CharSequence id) {
+        int from = offsets[2 * i], length = offsets[2 * i + 1] - from;
+        for (int k = 0; k < id.length(); ++k) {
+            char c = id.charAt(k);
+            if (c >= 0x80) return id(i).contentEquals(id);
+            if (k >= length || bytes[from + k] != c) return false;
+        }
+        return id.length() == length;
+    }
+
+    Booking get(int i) {
+        return AbstractFactory.getFactory(TIERS[tiers[i]]).build(TYPES[kinds[i]], id(i), rooms[i], info(i));
+    }
+
+    Booking view(int i) {
+        if (kinds[i] == BADMINTON) {
+            if (tiers[i] == PREMIUM) {
+                badmintonPremium.id = id(i);
+                badmintonPremium.courtRoom = rooms[i];
+                badmintonPremium.phone = info(i);
+                return badmintonPremium;
+            }
+            badmintonStandard.id = id(i);
+            badmintonStandard.courtRoom = rooms[i];
+            badmintonStandard.email = info(i);
+            return badmintonStandard;
+        }
+        if (tiers[i] == PREMIUM) {
+            zumbaPremium.id = id(i);
+            zumbaPremium.classRoom = rooms[i];
+            zumbaPremium.phone = info(i);
+            return zumbaPremium;
+        }
+        zumbaStandard.id = id(i);
+        zumbaStandard.classRoom = rooms[i];
+        zumbaStandard.email = info(i);
+        return zumbaStandard;
+    }
+
+    private int size;
+    private int[] rooms;
+    private byte[] kinds, tiers;
+    private int[] offsets;
+    private byte[] bytes;
+    private final BadmintonPremiumBooking badmintonPremium = new BadmintonPremiumBooking();
+    private final BadmintonStandardBooking badmintonStandard = new BadmintonStandardBooking();
+    private final ZumbaPremiumBooking zumbaPremium = new ZumbaPremiumBooking();
+    private final ZumbaStandardBooking zumbaStandard = new ZumbaStandardBooking();
+}
@@ -1,8 +1,16 @@
 package adapter;
 
 import java.io.IOException;
+import java.lang.ref.WeakReference;
 import java.time.LocalDateTime;
+import java.time.ZoneOffset;
 import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.WeakHashMap;
 
 /**
  * You have a class BadmintonBooking, a class ZumbaBooking, both can extend the end time, 
@@ -20,10 +28,29 @@ import java.time.temporal.ChronoUnit;
  * - CONVERT the input of `extendTo` into a suitable format for `extendBy`
  * - REUSE `extendBy` on the converted data
  * 
+ * To extend many bookings at once (e.g. when the facility closes later), BulkExtension takes a
+ * mixed collection and gives every booking the same result as extendTo/extendBy would, without an
+ * adapter per ZumbaBooking: the distance to the new end is computed once per booking from epoch
+ * seconds instead of with LocalDateTime.until.
+ * 
+ * Instead of creating a new adapter at every call site, ask ZumbaBookingAdapter.of(booking): it keeps
+ * one adapter per ZumbaBooking for as long as both are in use, and brings its fields up to date with
+ * the ZumbaBooking before handing it out.
+ * 
+ * Every extension of a Booking allocates a new LocalDateTime. EpochZumbaBooking and EpochBadmintonBooking
+ * keep start and end as epoch seconds instead, extend them with plain arithmetic and only build
+ * a LocalDateTime when start() or end() is asked for.
+ * 
  */
 
 public class Main {
     public static void main(String[] args) throws IOException {
+        if (args.length > 0 && args[0].equals("bench")) {
+            benchmark(args.length > 1 ? Integer.parseInt(args[1]) : 10_000_000);
+            benchmarkBulk(10_000);
+            benchmarkEpoch(args.length > 1 ? Integer.parseInt(args[1]) : 10_000_000);
+            return;
+        }
         BadmintonBooking b1 = new BadmintonBooking();
         b1.id = "ABC123";
         b1.end = LocalDateTime.of(2020, 7, 1, 10, 0, 0);
@@ -38,6 +65,29 @@ public class Main {
         updateBookingInfo(new ZumbaBookingAdapter(b2), 2020, 7, 1, 12, 0, 0);
         assert b2.end.getHour() == 12;
 
+        ZumbaBookingAdapter adapter = ZumbaBookingAdapter.of(b2);
+        assert ZumbaBookingAdapter.of(b2) == adapter;
+        b2.extendBy(30); // behind the adapter's back
+        updateBookingInfo(ZumbaBookingAdapter.of(b2), 2020, 7, 1, 14, 0, 0);
+        assert b2.end.getHour() == 14 && b2.end.getMinute() == 0 && adapter.end == b2.end;
+
+        List<Booking> late = new ArrayList<>();
+        late.add(b1);
+        late.add(b2);
+        ZumbaBooking b3 = new ZumbaBooking();
+        b3.end = LocalDateTime.of(2020, 7, 1, 21, 30, 20);
+        late.add(b3);
+        LocalDateTime closing = LocalDateTime.of(2020, 7, 1, 23, 0, 0);
+        assert BulkExtension.extendTo(late, closing) == 3;
+        assert b1.end.equals(closing) && b2.end.equals(closing);
+        // same as ZumbaBooking.extendBy(end.until(closing, MINUTES)): whole minutes only
+        assert b3.end.equals(LocalDateTime.of(2020, 7, 1, 22, 59, 20));
+        assert BulkExtension.extendTo(late, closing) == 0;
+        BulkExtension.extendBy(late, 30);
+        assert b1.end.equals(closing.plusMinutes(30)) && b2.end.equals(closing.plusMinutes(30));
+
+        checkEpochBookings(10_000);
+
         System.out.println("All assertions passed!");
     }
 
@@ -46,6 +96,162 @@ public class Main {
         b.extendTo(LocalDateTime.of(jahr, monat, tag, uhr, minute, sekund));
         System.out.println("Updated successfully. New time: " + b.end);
     }
+
+    // extendTo on a BadmintonBooking vs. through a new adapter per call vs. through one reused adapter
+    static void benchmark(int n) {
+        LocalDateTime start = LocalDateTime.of(2020, 7, 1, 10, 0, 0);
+        LocalDateTime[] ends = new LocalDateTime[64];
+        for (int i = 0; i < ends.length; ++i) ends[i] = start.plusMinutes(i);
+        BadmintonBooking badminton = new BadmintonBooking();
+        ZumbaBooking zumba = new ZumbaBooking();
+        badminton.end = zumba.end = start;
+        ZumbaBookingAdapter reused = new ZumbaBookingAdapter(zumba);
+        for (int round = 0; round < 5; ++round) {
+            long sink = 0;
+            long t0 = System.nanoTime();
+            for (int i = 0; i < n; ++i) {
+                badminton.extendTo(ends[i & 63]);
+                sink += badminton.end.getMinute();
+            }
+            long t1 = System.nanoTime();
+            for (int i = 0; i < n; ++i) {
+                new ZumbaBookingAdapter(zumba).extendTo(ends[i & 63]);
+                sink += zumba.end.getMinute();
+            }
+            long t2 = System.nanoTime();
+            for (int i = 0; i < n; ++i) {
+                reused.extendTo(ends[i & 63]);
+                sink += zumba.end.getMinute();
+            }
+            long t3 = System.nanoTime();
+            for (int i = 0; i < n; ++i) {
+                ZumbaBookingAdapter.of(zumba).extendTo(ends[i & 63]);
+                sink += zumba.end.getMinute();
+            }
+            long t4 = System.nanoTime();
+            System.out.printf("round %d: direct %.1f, new adapter %.1f, reused adapter %.1f, registry %.1f ns/op (%d)%n",
+                    round, (t1 - t0) / (double) n, (t2 - t1) / (double) n, (t3 - t2) / (double) n,
+                    (t4 - t3) / (double) n, sink);
+        }
+    }
+
+    // random extensions on LocalDateTime bookings and on epoch bookings must give the same ends
+    static void checkEpochBookings(int n) {
+        // moving the end back by less than a minute, thanks to half a second, leaves it where it was
+        LocalDateTime ten = LocalDateTime.of(2020, 7, 1, 10, 0, 0), almost = ten.minusSeconds(59).minusNanos(500_000_000);
+        ZumbaBooking zumba = new ZumbaBooking();
+        zumba.end = ten;
+        new ZumbaBookingAdapter(zumba).extendTo(almost);
+        EpochZumbaBooking epochZumba = new EpochZumbaBooking();
+        epochZumba.setEnd(ten);
+        epochZumba.extendTo(almost);
+        assert zumba.end.equals(ten) && epochZumba.end().equals(ten);
+        assert BulkExtension.extendTo(List.of(epochZumba), EpochBooking.toEpochSecond(almost), almost.getNano()) == 0;
+        assert BulkExtension.extendTo(List.of(epochZumba), EpochBooking.toEpochSecond(almost), 0) == 1;
+        assert epochZumba.end().equals(ten.minusMinutes(1));
+
+        Random random = new Random(42);
+        List<Booking> bookings = new ArrayList<>();
+        List<EpochBooking> epochBookings = new ArrayList<>();
+        for (int i = 0; i < n; ++i) {
+            LocalDateTime end = LocalDateTime.of(2020, 1, 1, 0, 0).plusSeconds(random.nextInt(366 * 24 * 3600));
+            // only newEnd has a fraction: an epoch booking cannot store one
+            LocalDateTime newEnd = end.plusSeconds(random.nextInt(48 * 3600) - 24 * 3600).plusNanos(random.nextInt(1_000_000_000));
+            int minutes = random.nextInt(600) - 300;
+            if (random.nextBoolean()) {
+                ZumbaBooking z = new ZumbaBooking();
+                EpochZumbaBooking e = new EpochZumbaBooking();
+                z.end = end;
+                e.setEnd(end);
+                new ZumbaBookingAdapter(z).extendTo(newEnd);
+                e.extendTo(newEnd);
+                assert z.end.equals(e.end());
+                z.extendBy(minutes);
+                e.extendBy(minutes);
+                assert z.end.equals(e.end());
+                bookings.add(z);
+                epochBookings.add(e);
+            } else {
+                BadmintonBooking b = new BadmintonBooking();
+                EpochBadmintonBooking e = new EpochBadmintonBooking();
+                b.end = end;
+                e.setEnd(end);
+                b.extendTo(newEnd);
+                e.extendTo(newEnd);
+                assert b.end.withNano(0).equals(e.end());
+                bookings.add(b);
+                epochBookings.add(e);
+            }
+        }
+        LocalDateTime closing = LocalDateTime.of(2021, 1, 1, 23, 0, 0);
+        assert BulkExtension.extendTo(bookings, closing)
+                == BulkExtension.extendTo(epochBookings, EpochBooking.toEpochSecond(closing));
+        for (int i = 0; i < n; ++i) assert bookings.get(i).end.equals(epochBookings.get(i).end());
+    }
+
+    // extendBy on a LocalDateTime ZumbaBooking vs. an EpochZumbaBooking
+    static void benchmarkEpoch(int n) {
+        LocalDateTime start = LocalDateTime.of(2020, 7, 1, 10, 0, 0);
+        ZumbaBooking zumba = new ZumbaBooking();
+        EpochZumbaBooking epoch = new EpochZumbaBooking();
+        zumba.end = start;
+        epoch.setEnd(start);
+        for (int round = 0; round < 5; ++round) {
+            long sink = 0;
+            long t0 = System.nanoTime();
+            for (int i = 0; i < n; ++i) {
+                zumba.extendBy((i & 1) == 0 ? 15 : -10);
+                sink += zumba.end.getMinute();
+            }
+            long t1 = System.nanoTime();
+            for (int i = 0; i < n; ++i) {
+                epoch.extendBy((i & 1) == 0 ? 15 : -10);
+                sink += epoch.endSecond % 3600 / 60;
+            }
+            long t2 = System.nanoTime();
+            System.out.printf("round %d: extendBy LocalDateTime %.1f, epoch seconds %.1f ns/op (%d)%n",
+                    round, (t1 - t0) / (double) n, (t2 - t1) / (double) n, sink);
+        }
+    }
+
+    // batches of n mixed bookings, all extended to the same end: adapter per ZumbaBooking vs. BulkExtension
+    static void benchmarkBulk(int n) {
+        LocalDateTime start = LocalDateTime.of(2020, 7, 1, 10, 0, 0);
+        LocalDateTime[] closing = { start.plusHours(12), start.plusHours(13) };
+        long[] closingSecond = { EpochBooking.toEpochSecond(closing[0]), EpochBooking.toEpochSecond(closing[1]) };
+        List<Booking> bookings = new ArrayList<>();
+        List<EpochBooking> epochBookings = new ArrayList<>();
+        for (int i = 0; i < n; ++i) {
+            Booking b = i % 2 == 0 ? new BadmintonBooking() : new ZumbaBooking();
+            b.id = "B" + i;
+            b.end = start.plusMinutes(i % 600);
+            bookings.add(b);
+            EpochBooking e = i % 2 == 0 ? new EpochBadmintonBooking() : new EpochZumbaBooking();
+            e.id = b.id;
+            e.setEnd(b.end);
+            epochBookings.add(e);
+        }
+        int batches = 200;
+        for (int round = 0; round < 5; ++round) {
+            long t0 = System.nanoTime();
+            for (int k = 0; k < batches; ++k) {
+                for (Booking b : bookings) {
+                    LocalDateTime newEnd = closing[k & 1];
+                    if (b instanceof ZumbaBooking) new ZumbaBookingAdapter((ZumbaBooking) b).extendTo(newEnd);
+                    else ((BadmintonBooking) b).extendTo(newEnd);
+                }
+            }
+            long t1 = System.nanoTime();
+            int changed = 0;
+            for (int k = 0; k < batches; ++k) changed += BulkExtension.extendTo(bookings, closing[k & 1]);
+            long t2 = System.nanoTime();
+            for (int k = 0; k < batches; ++k) changed += BulkExtension.extendTo(epochBookings, closingSecond[k & 1]);
+            long t3 = System.nanoTime();
+            System.out.printf("round %d: adapter per booking %.1f, bulk %.1f, bulk on epoch bookings %.1f ns/booking (%d)%n",
+                    round, (t1 - t0) / ((double) batches * n), (t2 - t1) / ((double) batches * n),
+                    (t3 - t2) / ((double) batches * n), changed);
+        }
+    }
 }
 
 abstract class Booking {
@@ -65,18 +271,176 @@ class BadmintonBooking extends Booking {
     }
 }
 
+/**
+ * The fields inherited from Booking are a copy of the ZumbaBooking's. They are refreshed whenever the
+ * adapter is handed out by `of` and after every extendTo, and extendTo itself always reads the
+ * ZumbaBooking, never the copy.
+ */
 class ZumbaBookingAdapter extends BadmintonBooking {
+    // the ZumbaBooking keeps its adapter alive only through the adapter's own use: values are weak as well
+    private static final Map<ZumbaBooking, WeakReference<ZumbaBookingAdapter>> adapters = new WeakHashMap<>();
+
     ZumbaBookingAdapter(ZumbaBooking zumbaBooking) {
-        this.end = zumbaBooking.end;
-        this.start = zumbaBooking.start;
-        this.id = zumbaBooking.id;
         this.zumbaBooking = zumbaBooking;
+        refresh();
+    }
+
+    // the same adapter for the same ZumbaBooking, as long as someone still uses it
+    static ZumbaBookingAdapter of(ZumbaBooking zumbaBooking) {
+        ZumbaBookingAdapter adapter;
+        synchronized (adapters) {
+            WeakReference<ZumbaBookingAdapter> ref = adapters.get(zumbaBooking);
+            adapter = ref == null ? null : ref.get();
+            if (adapter == null) {
+                adapter = new ZumbaBookingAdapter(zumbaBooking);
+                adapters.put(zumbaBooking, new WeakReference<>(adapter));
+                return adapter;
+            }
+        }
+        adapter.refresh();
+        return adapter;
     }
+
     @Override
     public void extendTo(LocalDateTime newEnd) {
         int minutes = (int)zumbaBooking.end.until(newEnd, ChronoUnit.MINUTES);
         zumbaBooking.extendBy(minutes);
-        this.end = this.zumbaBooking.end;
+        refresh();
+    }
+
+    void refresh() {
+        id = zumbaBooking.id;
+        start = zumbaBooking.start;
+        end = zumbaBooking.end;
+    }
+
+    final ZumbaBooking zumbaBooking;
+}
+
+/**
+ * Extends a mixed collection of BadmintonBookings and ZumbaBookings in one pass. Every booking ends up
+ * exactly as if extendTo/extendBy had been called on it, or on a ZumbaBookingAdapter around it, but
+ * no adapter is created. The minutes to add to a ZumbaBooking are worked out on epoch seconds
+ * (LocalDateTime has no time zone, so any fixed offset gives the same distances).
+ */
+class BulkExtension {
+    // returns the number of bookings whose end changed
+    static int extendTo(Collection<? extends Booking> bookings, LocalDateTime newEnd) {
+        long newSecond = newEnd.toEpochSecond(ZoneOffset.UTC);
+        int newNano = newEnd.getNano();
+        int changed = 0;
+        for (Booking b : bookings) {
+            if (b instanceof ZumbaBooking) {
+                ZumbaBooking z = (ZumbaBooking) b;
+                long minutes = minutesUntil(z.end.toEpochSecond(ZoneOffset.UTC), z.end.getNano(), newSecond, newNano);
+                if (minutes == 0) continue;
+                z.extendBy((int) minutes);
+            } else if (b instanceof BadmintonBooking) {
+                if (b.end.equals(newEnd)) continue;
+                ((BadmintonBooking) b).extendTo(newEnd);
+            } else {
+                throw new IllegalArgumentException("Cannot extend " + b.getClass().getSimpleName() + " " + b.id);
+            }
+            ++changed;
+        }
+        return changed;
+    }
+
+    // the same on epoch bookings, without any LocalDateTime
+    static int extendTo(Collection<? extends EpochBooking> bookings, long newEndSecond) {
+        return extendTo(bookings, newEndSecond, 0);
+    }
+
+    // newEndNano only counts for the minutes of an EpochZumbaBooking, an EpochBadmintonBooking drops it
+    static int extendTo(Collection<? extends EpochBooking> bookings, long newEndSecond, int newEndNano) {
+        int changed = 0;
+        for (EpochBooking b : bookings) {
+            if (b instanceof EpochZumbaBooking) {
+                long minutes = minutesUntil(b.endSecond, 0, newEndSecond, newEndNano);
+                if (minutes == 0) continue;
+                ((EpochZumbaBooking) b).extendBy((int) minutes);
+            } else if (b instanceof EpochBadmintonBooking) {
+                if (b.endSecond == newEndSecond) continue;
+                ((EpochBadmintonBooking) b).extendTo(newEndSecond);
+            } else {
+                throw new IllegalArgumentException("Cannot extend " + b.getClass().getSimpleName() + " " + b.id);
+            }
+            ++changed;
+        }
+        return changed;
+    }
+
+    static void extendBy(Collection<? extends Booking> bookings, int minutes) {
+        for (Booking b : bookings) {
+            if (b instanceof ZumbaBooking) {
+                ((ZumbaBooking) b).extendBy(minutes);
+            } else if (b instanceof BadmintonBooking) {
+                ((BadmintonBooking) b).extendTo(b.end.plusMinutes(minutes));
+            } else {
+                throw new IllegalArgumentException("Cannot extend " + b.getClass().getSimpleName() + " " + b.id);
+            }
+        }
+    }
+
+    // same as end.until(newEnd, MINUTES): the difference in nanoseconds, truncated to whole minutes
+    static long minutesUntil(long endSecond, int endNano, long newSecond, int newNano) {
+        long seconds = newSecond - endSecond;
+        long nanos = seconds * 1_000_000_000L + (newNano - endNano);
+        return nanos / 60_000_000_000L;
+    }
+}
+
+/**
+ * Start and end in whole seconds since 1970-01-01T00:00, counted on the same local time line as
+ * LocalDateTime (there is no time zone, so UTC is only used as a fixed reference).
+ * Fractions of a second are dropped when a LocalDateTime is stored.
+ */
+abstract class EpochBooking {
+    static long toEpochSecond(LocalDateTime t) {
+        return t.toEpochSecond(ZoneOffset.UTC);
+    }
+
+    static LocalDateTime toLocalDateTime(long epochSecond) {
+        return LocalDateTime.ofEpochSecond(epochSecond, 0, ZoneOffset.UTC);
+    }
+
+    public LocalDateTime start() {
+        return toLocalDateTime(startSecond);
+    }
+
+    public LocalDateTime end() {
+        return toLocalDateTime(endSecond);
+    }
+
+    public void setStart(LocalDateTime start) {
+        startSecond = toEpochSecond(start);
+    }
+
+    public void setEnd(LocalDateTime end) {
+        endSecond = toEpochSecond(end);
+    }
+
+    public String id;
+    public long startSecond, endSecond;
+}
+
+class EpochZumbaBooking extends EpochBooking {
+    public void extendBy(int min) {
+        endSecond += 60L * min;
+    }
+
+    // what a ZumbaBookingAdapter does: extend by the whole minutes up to newEnd, fraction included
+    public void extendTo(LocalDateTime newEnd) {
+        extendBy((int) BulkExtension.minutesUntil(endSecond, 0, toEpochSecond(newEnd), newEnd.getNano()));
+    }
+}
+
+class EpochBadmintonBooking extends EpochBooking {
+    public void extendTo(long newEndSecond) {
+        endSecond = newEndSecond;
+    }
+
+    public void extendTo(LocalDateTime newEnd) {
+        extendTo(toEpochSecond(newEnd));
     }
-    ZumbaBooking zumbaBooking;
 }
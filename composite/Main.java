@@ -1,7 +1,35 @@
 package composite;
 
+import java.io.ByteArrayOutputStream;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Queue;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * You are organizing a champion league.
@@ -19,9 +47,40 @@ import java.util.Queue;
  * When these methods are called on a composite object, it may call the same method on
  * its children to finish the task (similar to Chain of Responsibility pattern)
  *
+ * The same bracket can also be stored flat (FlatTournament): instead of objects pointing
+ * to each other, every match lives at a position of an implicit heap (children of node i
+ * are 2i+1 and 2i+2), and players are replaced by their index in a player table.
+ * Run `java composite.Main bench [levels]` to compare both representations.
+ * A FlatTournament can be saved with BracketFile.write and opened again with BracketFile.open,
+ * which maps the file into memory: matches are read straight from the file when visited.
+ *
+ * printDFS/printBFS do not print match by match: renderDFS/renderBFS append to any Appendable
+ * (e.g. a StringBuilder), and the print methods pass them a BatchedSink that collects the text
+ * and writes it to System.out in large batches.
+ * renderDFS does not recurse either: it keeps the brackets still to be printed on an explicit stack,
+ * so a bracket of any depth can be printed. renderDFSByParentLinks needs no stack at all, it walks
+ * back up the parent links (ParentLinkWalk), and so only works while those links are up to date.
+ *
+ * Results can change while the league is running: setWinner on a match updates the players
+ * of the Tournaments above it, following the parent links, and stops as soon as a winner stays
+ * the same. MatchListeners registered on a match hear about every changed match in its subtree.
+ * For the same reason a match can be a bracket of only one Tournament; reusing it throws.
+ *
+ * When results come in from many threads at once, use a ConcurrentBracket instead: it keeps the
+ * state of every match in one atomically updated long, and propagates new winners upwards with
+ * compare-and-set, without locks.
+ *
+ * A Match tree can also be consumed as a java.util.stream.Stream, in DFS (stream()) or
+ * BFS (bfsStream()) order. The DFS spliterator splits a Tournament into its left and right
+ * brackets, so parallel streams divide the work along the bracket structure.
+ *
  */
 public class Main {
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException {
+        if (args.length > 0 && args[0].equals("bench")) {
+            benchmark(args.length > 1 ? Integer.parseInt(args[1]) : 20);
+            return;
+        }
         Player[] players = new Player[8];
         for (int i = 0; i < 8; ++i) players[i] = new Player(String.valueOf(i));
 
@@ -50,6 +109,255 @@ public class Main {
         System.out.println();
         t.printBFS();
         System.out.println();
+
+        FlatTournament flat = FlatTournament.of(t);
+        flat.printDFS();
+        System.out.println();
+        flat.printBFS();
+        System.out.println();
+        assert flat.nodeCount() == 7;
+        assert flat.toMatch().winner == t.winner;
+
+        Path file = Files.createTempFile("bracket", ".bin");
+        try {
+            BracketFile.write(flat, file);
+            MappedBracket mapped = BracketFile.open(file);
+            StringBuilder fromFile = new StringBuilder(), fromMemory = new StringBuilder();
+            mapped.renderDFS(fromFile);
+            flat.renderDFS(fromMemory);
+            assert fromFile.toString().equals(fromMemory.toString());
+            assert mapped.node(0).winner().equals("0") && mapped.node(2).playerB().equals("6");
+            assert mapped.toFlat().nodeCount() == 7;
+        } finally {
+            Files.delete(file);
+        }
+
+        assert t.parallelStream().map(m -> m.playerB.name).collect(Collectors.joining()).equals("4213657");
+        assert t.parallelBfsStream().map(m -> m.playerB.name).collect(Collectors.joining()).equals("4261357");
+        assert t.stream().filter(m -> m instanceof SingleMatch).count() == 4;
+
+        List<Match> changed = new ArrayList<>();
+        t.addListener(changed::add);
+        m3.setWinner(players[5]);
+        assert t2.playerA == players[5] && t2.winner == players[5] && t.playerB == players[5];
+        assert t.winner == players[0];
+        assert changed.size() == 3 && changed.get(0) == m3 && changed.get(2) == t;
+        m3.setWinner(players[5]);
+        assert changed.size() == 3;
+        m3.setWinner(players[4]);
+        assert t.playerB == players[4];
+
+        int[] depths = new int[7];
+        int visited = 0;
+        for (ParentLinkWalk walk = new ParentLinkWalk(t); walk.hasNext(); ++visited) {
+            walk.next();
+            depths[visited] = walk.depth();
+        }
+        assert Arrays.equals(depths, new int[] {0, 1, 2, 2, 1, 2, 2});
+        visited = 0;
+        for (ParentLinkWalk walk = new ParentLinkWalk(t2); walk.hasNext(); walk.next()) ++visited;
+        assert visited == 3;
+
+        // far deeper than the call stack allows for a recursive walk
+        Match ladder = ladder(200_000, players);
+        StringBuilder rendered = new StringBuilder();
+        ladder.renderDFS(rendered);
+        assert rendered.indexOf("[0, 2] [0, 1] [2, 3] [2, 3] ") > 0
+                && rendered.length() == ladder.size() * "[0, 1] ".length();
+        // a bracket cannot be reused by another Tournament, it would lose the link to the first one
+        SingleMatch shared = new SingleMatch(players[0], players[1], true);
+        Tournament first = new Tournament(shared, new SingleMatch(players[2], players[3], true), true);
+        try {
+            new Tournament(shared, new SingleMatch(players[4], players[5], true), true);
+            assert false;
+        } catch (IllegalArgumentException expected) {
+        }
+        shared.setWinner(players[1]);
+        assert first.playerA == players[1];
+        StringBuilder byParentLinks = new StringBuilder();
+        ladder.renderDFSByParentLinks(byParentLinks);
+        assert byParentLinks.toString().equals(rendered.toString());
+        try {
+            FlatTournament.of(ladder);
+            assert false;
+        } catch (IllegalArgumentException expected) {
+        }
+        assert FlatTournament.of(ladder(10, players)).levels == 11;
+
+        // the PrintStream encodes the batches, so they come out as if printed match by match
+        Match accents = new Tournament(new SingleMatch(new Player("Zo\u00eb"), new Player("\u0141ukasz"), true),
+                new SingleMatch(new Player("Ren\u00e9e"), new Player("J\u00fcrgen"), false), true);
+        ByteArrayOutputStream batched = new ByteArrayOutputStream(), perMatch = new ByteArrayOutputStream();
+        BatchedSink sink = new BatchedSink(new PrintStream(batched, false, StandardCharsets.UTF_16), 4);
+        accents.renderDFS(sink);
+        sink.flush();
+        PrintStream legacy = new PrintStream(perMatch, false, StandardCharsets.UTF_16);
+        legacyPrintDFS(accents, legacy);
+        legacy.flush();
+        assert Arrays.equals(batched.toByteArray(), perMatch.toByteArray());
+
+        ConcurrentBracket live = new ConcurrentBracket(flat);
+        live.setWinner(5, false); // [4, 5] -> 5 wins
+        assert live.playerB(0) == live.playerB(5) && live.winner(0) == live.playerA(0);
+        stressTest(10, 8, 20_000);
+        System.out.println("All assertions passed!");
+    }
+
+    // threads record random results on a bracket with 2^levels players, then every match must agree with its brackets
+    static void stressTest(int levels, int threads, int resultsPerThread) {
+        Player[] players = new Player[1 << levels];
+        for (int i = 0; i < players.length; ++i) players[i] = new Player(String.valueOf(i));
+        ConcurrentBracket bracket = new ConcurrentBracket(FlatTournament.of(balancedBracket(levels, players, 0)));
+        long elapsed = runConcurrently(bracket, threads, resultsPerThread);
+        int first = (1 << (levels - 1)) - 1;
+        for (int i = 0; i < first; ++i) {
+            assert bracket.playerA(i) == bracket.winner(2 * i + 1) && bracket.playerB(i) == bracket.winner(2 * i + 2)
+                    : "match " + i + " is out of date";
+        }
+        System.out.printf("%d threads recorded %d results, %.2f M results/s%n", threads,
+                (long) threads * resultsPerThread, (double) threads * resultsPerThread * 1e3 / elapsed);
+    }
+
+    static long runConcurrently(ConcurrentBracket bracket, int threads, int resultsPerThread) {
+        int first = bracket.nodeCount() / 2, leaves = bracket.nodeCount() - first;
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] workers = new Thread[threads];
+        for (int w = 0; w < threads; ++w) {
+            workers[w] = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int k = 0; k < resultsPerThread; ++k) {
+                    // mostly first-round results, sometimes a correction further up
+                    int node = random.nextInt(8) == 0 ? random.nextInt(first) : first + random.nextInt(leaves);
+                    bracket.setWinner(node, random.nextBoolean());
+                }
+            });
+            workers[w].start();
+        }
+        long t0 = System.nanoTime();
+        start.countDown();
+        try {
+            for (Thread w : workers) w.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return System.nanoTime() - t0;
+    }
+
+    static Match balancedBracket(int levels, Player[] players, int from) {
+        if (levels == 1) return new SingleMatch(players[from], players[from + 1], (from & 2) == 0);
+        int half = 1 << (levels - 1);
+        return new Tournament(balancedBracket(levels - 1, players, from),
+                balancedBracket(levels - 1, players, from + half), (from & half) == 0);
+    }
+
+    // `levels` Tournaments, each with the rest of the ladder as its left bracket
+    static Match ladder(int levels, Player[] players) {
+        Match m = new SingleMatch(players[0], players[1], true);
+        for (int i = 0; i < levels; ++i) m = new Tournament(m, new SingleMatch(players[2], players[3], true), true);
+        return m;
+    }
+
+    static int countDFS(Match m) {
+        if (m instanceof SingleMatch) return 1;
+        Tournament t = (Tournament) m;
+        return 1 + countDFS(t.leftBracket) + countDFS(t.rightBracket);
+    }
+
+    static long usedMemory() {
+        Runtime rt = Runtime.getRuntime();
+        for (int i = 0; i < 3; ++i) System.gc();
+        return rt.totalMemory() - rt.freeMemory();
+    }
+
+    static void benchmark(int levels) throws IOException {
+        Player[] players = new Player[1 << levels];
+        for (int i = 0; i < players.length; ++i) players[i] = new Player(String.valueOf(i));
+
+        long before = usedMemory();
+        Match tree = balancedBracket(levels, players, 0);
+        long treeBytes = usedMemory() - before;
+        FlatTournament flat = FlatTournament.of(tree);
+        long flatBytes = usedMemory() - before - treeBytes;
+        System.out.println("Matches: " + flat.nodeCount());
+        System.out.println("Object graph: " + treeBytes / flat.nodeCount() + " bytes/match");
+        System.out.println("Flat heap:    " + flatBytes / flat.nodeCount() + " bytes/match");
+
+        int[] sink = new int[1];
+        IntConsumer count = i -> sink[0]++;
+        for (int round = 0; round < 5; ++round) {
+            long t0 = System.nanoTime();
+            int objects = countDFS(tree);
+            long t1 = System.nanoTime();
+            sink[0] = 0;
+            flat.dfs(count);
+            long t2 = System.nanoTime();
+            flat.bfs(count);
+            long t3 = System.nanoTime();
+            assert objects == flat.nodeCount() && sink[0] == 2 * objects;
+            System.out.printf("round %d: object DFS %.1f, flat DFS %.1f, flat BFS %.1f Mnodes/s%n", round,
+                    objects * 1e3 / (t1 - t0), objects * 1e3 / (t2 - t1), objects * 1e3 / (t3 - t2));
+        }
+        benchmarkRendering(tree);
+        benchmarkFile(flat);
+        for (int threads = 1; threads <= 2 * Runtime.getRuntime().availableProcessors(); threads *= 2) {
+            long elapsed = runConcurrently(new ConcurrentBracket(flat), threads, 1_000_000);
+            System.out.printf("%d threads: %.2f M results/s%n", threads, threads * 1e9 / elapsed);
+        }
+    }
+
+    static void benchmarkFile(FlatTournament flat) throws IOException {
+        Path file = Files.createTempFile("bracket", ".bin");
+        try {
+            long t0 = System.nanoTime();
+            BracketFile.write(flat, file);
+            long t1 = System.nanoTime();
+            MappedBracket mapped = BracketFile.open(file);
+            long t2 = System.nanoTime();
+            int[] count = new int[1];
+            mapped.dfs(i -> count[0]++);
+            long t3 = System.nanoTime();
+            System.out.printf("file of %d bytes: write %.1f ms, open %.3f ms, DFS over the mapped file %.1f ms%n",
+                    Files.size(file), (t1 - t0) / 1e6, (t2 - t1) / 1e6, (t3 - t2) / 1e6);
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    static void legacyPrintDFS(Match m, PrintStream out) {
+        out.print("[" + m.playerA.name + ", " + m.playerB.name + "] ");
+        if (m instanceof SingleMatch) return;
+        Tournament t = (Tournament) m;
+        legacyPrintDFS(t.leftBracket, out);
+        legacyPrintDFS(t.rightBracket, out);
+    }
+
+    static void benchmarkRendering(Match tree) {
+        PrintStream nowhere = new PrintStream(OutputStream.nullOutputStream());
+        StringBuilder reused = new StringBuilder();
+        int n = tree.size();
+        for (int round = 0; round < 5; ++round) {
+            long t0 = System.nanoTime();
+            legacyPrintDFS(tree, nowhere);
+            long t1 = System.nanoTime();
+            BatchedSink sink = new BatchedSink(nowhere);
+            try {
+                tree.renderDFS(sink);
+                sink.flush();
+                long t2 = System.nanoTime();
+                reused.setLength(0);
+                tree.renderDFS(reused);
+                long t3 = System.nanoTime();
+                System.out.printf("round %d: print per node %.2f, batched sink %.2f, StringBuilder %.2f Mnodes/s%n",
+                        round, n * 1e3 / (t1 - t0), n * 1e3 / (t2 - t1), n * 1e3 / (t3 - t2));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
     }
 }
 
@@ -65,50 +373,761 @@ abstract class Match {
     Match(Player a, Player b, boolean aWins) {
         playerA = a;
         playerB = b;
+        this.aWins = aWins;
         if (aWins) winner = a; else winner = b;
     }
+
+    public void setWinner(Player p) {
+        if (p != playerA && p != playerB) throw new IllegalArgumentException(p.name + " does not play in this match");
+        setWinner(p == playerA);
+    }
+
+    /**
+     * Records a new result and passes the new winner up to the Tournaments above, in O(depth).
+     * Propagation stops at the first Tournament whose winner does not change.
+     */
+    public void setWinner(boolean aWins) {
+        this.aWins = aWins;
+        Player w = aWins ? playerA : playerB;
+        if (w == winner) return;
+        winner = w;
+        List<Match> changed = new ArrayList<>();
+        changed.add(this);
+        Match child = this;
+        for (Tournament t = parent; t != null; child = t, t = t.parent) {
+            if (child == t.leftBracket) t.playerA = child.winner; else t.playerB = child.winner;
+            changed.add(t);
+            w = t.aWins ? t.playerA : t.playerB;
+            if (w == t.winner) break;
+            t.winner = w;
+        }
+        // changed.get(k) is the k-th match on the way up, so the k-th match listens to changed[0..k]
+        int k = 0;
+        for (Match m = this; m != null; m = m.parent, ++k) {
+            if (m.listeners == null) continue;
+            int last = Math.min(k, changed.size() - 1);
+            for (MatchListener l : m.listeners) {
+                for (int c = 0; c <= last; ++c) l.matchChanged(changed.get(c));
+            }
+        }
+    }
+
+    // the listener is told about changes of this match and of any match below it
+    public void addListener(MatchListener l) {
+        if (listeners == null) listeners = new ArrayList<>(1);
+        listeners.add(l);
+    }
+
     public void printDFS() {
-        if (this instanceof SingleMatch) {
-            System.out.print("[" + this.playerA.name + ", " + this.playerB.name + "] ");
-            return;
+        BatchedSink out = new BatchedSink(System.out);
+        try {
+            renderDFS(out);
+            out.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
-        Tournament t = (Tournament) this;
-        System.out.print("[" + this.playerA.name + ", " + this.playerB.name + "] "); // pre-order
-        t.leftBracket.printDFS();
-        // System.out.println("[" + this.playerA.name + ", " + this.playerB.name + "] "); // in-order
-        t.rightBracket.printDFS();
-        // System.out.println("[" + this.playerA.name + ", " + this.playerB.name + "] "); // post-order
     }
 
     public void printBFS() {
+        BatchedSink out = new BatchedSink(System.out);
+        try {
+            renderBFS(out);
+            out.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // pre-order, with the right brackets still to be printed on a stack (at most one per level)
+    public void renderDFS(Appendable out) throws IOException {
+        ArrayDeque<Match> stack = new ArrayDeque<>();
+        stack.push(this);
+        while (!stack.isEmpty()) {
+            Match next = stack.pop();
+            next.appendInfo(out);
+            if (next instanceof SingleMatch) continue;
+            Tournament t = (Tournament) next;
+            stack.push(t.rightBracket);
+            stack.push(t.leftBracket);
+        }
+    }
+
+    // same output as renderDFS in constant memory, see ParentLinkWalk for when it can be used
+    public void renderDFSByParentLinks(Appendable out) throws IOException {
+        for (ParentLinkWalk walk = new ParentLinkWalk(this); walk.hasNext(); ) walk.next().appendInfo(out);
+    }
+
+    public void renderBFS(Appendable out) throws IOException {
         Queue<Match> q = new LinkedList<>();
         q.add(this);
         while (!q.isEmpty()) {
             Match next = q.poll();
-            System.out.print("[" + next.playerA.name + ", " + next.playerB.name + "] ");
+            next.appendInfo(out);
             if (next instanceof SingleMatch) continue;
             Tournament t = (Tournament) next;
             q.add(t.leftBracket);
             q.add(t.rightBracket);
         }
     }
+
+    // same as "[" + playerA.name + ", " + playerB.name + "] ", without building the String
+    void appendInfo(Appendable out) throws IOException {
+        out.append('[').append(playerA.name).append(", ").append(playerB.name).append("] ");
+    }
+
+    // number of matches in this subtree
+    abstract int size();
+
+    // pre-order, same as printDFS
+    public Stream<Match> stream() {
+        return StreamSupport.stream(new MatchSpliterator(this), false);
+    }
+
+    public Stream<Match> parallelStream() {
+        return StreamSupport.stream(new MatchSpliterator(this), true);
+    }
+
+    // level order, same as printBFS
+    public Stream<Match> bfsStream() {
+        return StreamSupport.stream(bfsSpliterator(), false);
+    }
+
+    public Stream<Match> parallelBfsStream() {
+        return StreamSupport.stream(bfsSpliterator(), true);
+    }
+
+    // BFS order interleaves the brackets, so it can only be split into batches
+    private Spliterator<Match> bfsSpliterator() {
+        Queue<Match> q = new ArrayDeque<>();
+        q.add(this);
+        java.util.Iterator<Match> it = new java.util.Iterator<Match>() {
+            public boolean hasNext() {
+                return !q.isEmpty();
+            }
+            public Match next() {
+                Match next = q.poll();
+                if (next instanceof Tournament) {
+                    Tournament t = (Tournament) next;
+                    q.add(t.leftBracket);
+                    q.add(t.rightBracket);
+                }
+                return next;
+            }
+        };
+        return Spliterators.spliterator(it, size(), Spliterator.ORDERED | Spliterator.NONNULL);
+    }
+
     public Player playerA, playerB, winner;
+    boolean aWins;
+    // the Tournament this match is a bracket of, null for the final
+    Tournament parent;
+    private List<MatchListener> listeners;
+}
+
+interface MatchListener {
+    void matchChanged(Match m);
 }
 
+// A match can be a bracket of only one Tournament: setWinner follows the parent link upwards
 class Tournament extends Match {
     Tournament(Match l, Match r, boolean lWins) {
+        if (l == r || l.parent != null || r.parent != null) {
+            throw new IllegalArgumentException("A match can only be a bracket of one Tournament");
+        }
         leftBracket = l;
         rightBracket = r;
         playerA = l.winner;
         playerB = r.winner;
+        aWins = lWins;
         if (lWins) winner = playerA; else winner = playerB;
+        size = 1 + l.size() + r.size();
+        l.parent = this;
+        r.parent = this;
+    }
+    @Override
+    int size() {
+        return size;
     }
     public Match leftBracket, rightBracket;
+    private final int size;
 }
 
 class SingleMatch extends Match {
     SingleMatch(Player a, Player b, boolean aWins) {
         super(a,b,aWins);
     }
+    @Override
+    int size() {
+        return 1;
+    }
+}
+
+/**
+ * Pre-order walk that keeps nothing but the current match: after a SingleMatch it climbs the
+ * parent links for as long as it comes up from a right bracket, then continues with the right
+ * bracket next to the left one it came from. depth() is the depth of the match last returned
+ * by next(), relative to the match the walk started on.
+ * It relies on every match's parent being the Tournament it is walked under, so it is only used
+ * where asked for (renderDFSByParentLinks); renderDFS keeps its own stack instead.
+ */
+class ParentLinkWalk {
+    ParentLinkWalk(Match root) {
+        this.root = root;
+        next = root;
+    }
+
+    boolean hasNext() {
+        return next != null;
+    }
+
+    Match next() {
+        Match result = next;
+        depth = nextDepth;
+        if (result instanceof Tournament) {
+            next = ((Tournament) result).leftBracket;
+            nextDepth = depth + 1;
+            return result;
+        }
+        Match m = result;
+        int d = depth;
+        while (m != root && m == m.parent.rightBracket) {
+            m = m.parent;
+            --d;
+        }
+        next = m == root ? null : m.parent.rightBracket;
+        nextDepth = d;
+        return result;
+    }
+
+    int depth() {
+        return depth;
+    }
+
+    private final Match root;
+    private Match next;
+    private int depth, nextDepth;
 }
 
+/**
+ * Pre-order spliterator over a Match tree.
+ * `pending` is a single match to emit before the subtrees on the stack (it is not descended into).
+ * trySplit hands out the earliest part of the remaining traversal: the next subtree on the stack,
+ * or, when only one Tournament is left, the Tournament itself together with its left bracket.
+ */
+class MatchSpliterator implements Spliterator<Match> {
+    MatchSpliterator(Match root) {
+        this(null, root);
+    }
+
+    private MatchSpliterator(Match pending, Match subtree) {
+        this.pending = pending;
+        if (pending != null) remaining = 1;
+        if (subtree != null) {
+            push(subtree);
+            remaining += subtree.size();
+        }
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super Match> action) {
+        Match next;
+        if (pending != null) {
+            next = pending;
+            pending = null;
+        } else if (top > 0) {
+            next = stack[--top];
+            stack[top] = null;
+            if (next instanceof Tournament) {
+                Tournament t = (Tournament) next;
+                push(t.rightBracket);
+                push(t.leftBracket);
+            }
+        } else {
+            return false;
+        }
+        --remaining;
+        action.accept(next);
+        return true;
+    }
+
+    @Override
+    public Spliterator<Match> trySplit() {
+        if (pending != null) {
+            if (top == 0) return null;
+            MatchSpliterator prefix = new MatchSpliterator(pending, null);
+            pending = null;
+            --remaining;
+            return prefix;
+        }
+        if (top >= 2) {
+            Match first = stack[--top];
+            stack[top] = null;
+            remaining -= first.size();
+            return new MatchSpliterator(null, first);
+        }
+        if (top == 1 && stack[0] instanceof Tournament) {
+            Tournament t = (Tournament) stack[0];
+            stack[0] = t.rightBracket;
+            remaining -= 1 + t.leftBracket.size();
+            return new MatchSpliterator(t, t.leftBracket);
+        }
+        return null;
+    }
+
+    @Override
+    public long estimateSize() {
+        return remaining;
+    }
+
+    @Override
+    public int characteristics() {
+        return ORDERED | SIZED | SUBSIZED | NONNULL;
+    }
+
+    private void push(Match m) {
+        if (top == stack.length) stack = java.util.Arrays.copyOf(stack, top * 2);
+        stack[top++] = m;
+    }
+
+    private Match pending;
+    private Match[] stack = new Match[16];
+    private int top;
+    private long remaining;
+}
+
+class FlatTournament {
+    private FlatTournament(int levels, Player[] players) {
+        this.levels = levels;
+        this.players = players;
+        int size = (1 << levels) - 1;
+        playerA = new int[size];
+        playerB = new int[size];
+        winner = new int[size];
+        java.util.Arrays.fill(playerA, -1);
+    }
+
+    FlatTournament(Player[] players, int[] playerA, int[] playerB, int[] winner) {
+        this.players = players;
+        this.playerA = playerA;
+        this.playerB = playerB;
+        this.winner = winner;
+        this.levels = 32 - Integer.numberOfLeadingZeros(playerA.length);
+    }
+
+    static FlatTournament of(Match root) {
+        int levels = height(root, 30);
+        if (levels > 30) {
+            throw new IllegalArgumentException("Bracket has more than 30 levels, too deep for a flat heap");
+        }
+        IdentityHashMap<Player, Integer> ids = new IdentityHashMap<>();
+        FlatTournament f = new FlatTournament(levels, null);
+        f.fill(root, 0, ids);
+        f.players = new Player[ids.size()];
+        for (java.util.Map.Entry<Player, Integer> e : ids.entrySet()) f.players[e.getValue()] = e.getKey();
+        return f;
+    }
+
+    // the number of levels, but at most limit + 1: the walk stops there, so a deep bracket cannot overflow the stack
+    private static int height(Match m, int limit) {
+        if (m instanceof SingleMatch || limit == 0) return 1;
+        Tournament t = (Tournament) m;
+        return 1 + Math.max(height(t.leftBracket, limit - 1), height(t.rightBracket, limit - 1));
+    }
+
+    private void fill(Match m, int i, IdentityHashMap<Player, Integer> ids) {
+        playerA[i] = intern(m.playerA, ids);
+        playerB[i] = intern(m.playerB, ids);
+        winner[i] = intern(m.winner, ids);
+        if (m instanceof SingleMatch) return;
+        Tournament t = (Tournament) m;
+        fill(t.leftBracket, 2 * i + 1, ids);
+        fill(t.rightBracket, 2 * i + 2, ids);
+    }
+
+    private static int intern(Player p, IdentityHashMap<Player, Integer> ids) {
+        Integer id = ids.get(p);
+        if (id == null) {
+            id = ids.size();
+            ids.put(p, id);
+        }
+        return id;
+    }
+
+    public Match toMatch() {
+        return toMatch(0);
+    }
+
+    private Match toMatch(int i) {
+        boolean aWins = winner[i] == playerA[i];
+        if (isLeaf(i)) return new SingleMatch(players[playerA[i]], players[playerB[i]], aWins);
+        return new Tournament(toMatch(2 * i + 1), toMatch(2 * i + 2), aWins);
+    }
+
+    public boolean isLeaf(int i) {
+        int left = 2 * i + 1;
+        return left >= playerA.length || playerA[left] < 0;
+    }
+
+    public int nodeCount() {
+        int n = 0;
+        for (int a : playerA) if (a >= 0) ++n;
+        return n;
+    }
+
+    // pre-order, same order as Match.printDFS
+    public void dfs(IntConsumer visit) {
+        int[] stack = new int[levels + 1];
+        int top = 0;
+        stack[top++] = 0;
+        while (top > 0) {
+            int i = stack[--top];
+            visit.accept(i);
+            if (isLeaf(i)) continue;
+            stack[top++] = 2 * i + 2;
+            stack[top++] = 2 * i + 1;
+        }
+    }
+
+    // level order is simply the order of the heap positions
+    public void bfs(IntConsumer visit) {
+        for (int i = 0; i < playerA.length; ++i) {
+            if (playerA[i] >= 0) visit.accept(i);
+        }
+    }
+
+    void appendInfo(int i, Appendable out) {
+        try {
+            out.append('[').append(players[playerA[i]].name).append(", ").append(players[playerB[i]].name).append("] ");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // throws IOException like Match.renderDFS, the traversal only carries it out of the IntConsumer
+    public void renderDFS(Appendable out) throws IOException {
+        try {
+            dfs(i -> appendInfo(i, out));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    public void renderBFS(Appendable out) throws IOException {
+        try {
+            bfs(i -> appendInfo(i, out));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    public void printDFS() {
+        BatchedSink out = new BatchedSink(System.out);
+        try {
+            renderDFS(out);
+            out.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public void printBFS() {
+        BatchedSink out = new BatchedSink(System.out);
+        try {
+            renderBFS(out);
+            out.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    Player[] players;
+    final int[] playerA, playerB, winner;
+    final int levels;
+}
+
+/**
+ * Collects appended text in one reusable StringBuilder and only hands it to the PrintStream
+ * once `batchSize` chars have accumulated (and on flush), like visitor.PrintDepth. The stream
+ * encodes the text itself, so the output is the same as printing match by match.
+ */
+class BatchedSink implements Appendable, Flushable {
+    BatchedSink(PrintStream out) {
+        this(out, 1 << 16);
+    }
+
+    BatchedSink(PrintStream out, int batchSize) {
+        this.out = out;
+        this.batchSize = batchSize;
+        buffer = new StringBuilder(batchSize + 256);
+    }
+
+    @Override
+    public BatchedSink append(CharSequence s) {
+        buffer.append(s);
+        if (buffer.length() >= batchSize) drain();
+        return this;
+    }
+
+    @Override
+    public BatchedSink append(CharSequence s, int start, int end) {
+        buffer.append(s, start, end);
+        if (buffer.length() >= batchSize) drain();
+        return this;
+    }
+
+    @Override
+    public BatchedSink append(char c) {
+        buffer.append(c);
+        if (buffer.length() >= batchSize) drain();
+        return this;
+    }
+
+    @Override
+    public void flush() {
+        drain();
+        out.flush();
+    }
+
+    private void drain() {
+        out.append(buffer);
+        buffer.setLength(0);
+    }
+
+    private final PrintStream out;
+    private final int batchSize;
+    private final StringBuilder buffer;
+}
+
+/**
+ * Binary layout of a bracket file (big-endian):
+ *   header        int magic, int version, int nodeCount, int playerCount
+ *   nodes         nodeCount x (int playerA, int playerB), playerA == -1 for an empty heap position
+ *   winner flags  one bit per node, set if playerA won, (nodeCount + 7) / 8 bytes
+ *   player table  (playerCount + 1) int offsets into the names, then the UTF-8 names
+ * Nodes use the same heap positions as FlatTournament.
+ */
+class BracketFile {
+    static final int MAGIC = 0x42524B54, VERSION = 1, HEADER = 16;
+
+    static void write(FlatTournament f, Path path) throws IOException {
+        int nodes = f.playerA.length;
+        byte[][] names = new byte[f.players.length][];
+        long nameBytes = 0;
+        for (int p = 0; p < names.length; ++p) {
+            names[p] = f.players[p].name.getBytes(StandardCharsets.UTF_8);
+            nameBytes += names[p].length;
+        }
+        long size = HEADER + 8L * nodes + (nodes + 7) / 8 + 4L * (names.length + 1) + nameBytes;
+        if (size > Integer.MAX_VALUE) throw new IOException("Bracket of " + size + " bytes is too big to be mapped");
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            MappedByteBuffer out = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            out.putInt(MAGIC).putInt(VERSION).putInt(nodes).putInt(names.length);
+            for (int i = 0; i < nodes; ++i) out.putInt(f.playerA[i]).putInt(f.playerB[i]);
+            for (int i = 0; i < nodes; i += 8) {
+                int flags = 0;
+                for (int k = 0; k < 8 && i + k < nodes; ++k) {
+                    if (f.playerA[i + k] >= 0 && f.winner[i + k] == f.playerA[i + k]) flags |= 1 << k;
+                }
+                out.put((byte) flags);
+            }
+            int offset = 0;
+            for (byte[] name : names) {
+                out.putInt(offset);
+                offset += name.length;
+            }
+            out.putInt(offset);
+            for (byte[] name : names) out.put(name);
+            out.force();
+        }
+    }
+
+    static MappedBracket open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) throw new IOException(path + " is too big to be mapped");
+            // the mapping stays valid after the channel is closed
+            MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (in.getInt(0) != MAGIC || in.getInt(4) != VERSION) throw new IOException(path + " is not a bracket file");
+            return new MappedBracket(in);
+        }
+    }
+}
+
+// Reads matches directly from the mapped file; only player names are decoded, once, on first use
+class MappedBracket {
+    MappedBracket(ByteBuffer buffer) {
+        this.buffer = buffer;
+        nodeCount = buffer.getInt(8);
+        names = new String[buffer.getInt(12)];
+        flags = BracketFile.HEADER + 8 * nodeCount;
+        playerTable = flags + (nodeCount + 7) / 8;
+        nameBytes = playerTable + 4 * (names.length + 1);
+        levels = 32 - Integer.numberOfLeadingZeros(nodeCount);
+    }
+
+    int nodeCount() { return nodeCount; }
+    boolean exists(int i) { return i < nodeCount && playerA(i) >= 0; }
+    int playerA(int i) { return buffer.getInt(BracketFile.HEADER + 8 * i); }
+    int playerB(int i) { return buffer.getInt(BracketFile.HEADER + 8 * i + 4); }
+    boolean aWins(int i) { return (buffer.get(flags + (i >>> 3)) >>> (i & 7) & 1) != 0; }
+    int winner(int i) { return aWins(i) ? playerA(i) : playerB(i); }
+
+    boolean isLeaf(int i) {
+        return !exists(2 * i + 1);
+    }
+
+    String playerName(int id) {
+        String name = names[id];
+        if (name == null) {
+            int from = buffer.getInt(playerTable + 4 * id), to = buffer.getInt(playerTable + 4 * id + 4);
+            byte[] bytes = new byte[to - from];
+            buffer.get(nameBytes + from, bytes);
+            names[id] = name = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return name;
+    }
+
+    MatchView node(int i) {
+        return new MatchView(this, i);
+    }
+
+    // pre-order, same order as Match.printDFS
+    void dfs(IntConsumer visit) {
+        int[] stack = new int[levels + 1];
+        int top = 0;
+        stack[top++] = 0;
+        while (top > 0) {
+            int i = stack[--top];
+            visit.accept(i);
+            if (isLeaf(i)) continue;
+            stack[top++] = 2 * i + 2;
+            stack[top++] = 2 * i + 1;
+        }
+    }
+
+    void bfs(IntConsumer visit) {
+        for (int i = 0; i < nodeCount; ++i) {
+            if (playerA(i) >= 0) visit.accept(i);
+        }
+    }
+
+    void renderDFS(Appendable out) throws IOException {
+        try {
+            dfs(i -> {
+                try {
+                    out.append('[').append(playerName(playerA(i))).append(", ").append(playerName(playerB(i))).append("] ");
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    // copies the whole bracket back onto the heap
+    FlatTournament toFlat() {
+        Player[] players = new Player[names.length];
+        for (int p = 0; p < players.length; ++p) players[p] = new Player(playerName(p));
+        int[] a = new int[nodeCount], b = new int[nodeCount], w = new int[nodeCount];
+        for (int i = 0; i < nodeCount; ++i) {
+            a[i] = playerA(i);
+            b[i] = playerB(i);
+            w[i] = a[i] < 0 ? -1 : winner(i);
+        }
+        return new FlatTournament(players, a, b, w);
+    }
+
+    private final ByteBuffer buffer;
+    private final int nodeCount, flags, playerTable, nameBytes, levels;
+    private final String[] names;
+}
+
+// A match of a MappedBracket, read from the file on each call
+class MatchView {
+    MatchView(MappedBracket bracket, int index) {
+        this.bracket = bracket;
+        this.index = index;
+    }
+    String playerA() { return bracket.playerName(bracket.playerA(index)); }
+    String playerB() { return bracket.playerName(bracket.playerB(index)); }
+    String winner() { return bracket.playerName(bracket.winner(index)); }
+    boolean isLeaf() { return bracket.isLeaf(index); }
+    MatchView left() { return bracket.node(2 * index + 1); }
+    MatchView right() { return bracket.node(2 * index + 2); }
+
+    final MappedBracket bracket;
+    final int index;
+}
+
+/**
+ * A FlatTournament whose results can be recorded from many threads.
+ * Every match is a single long in an AtomicLongArray: playerA in the upper 32 bits, playerB in
+ * bits 1..31 and "playerA won" in bit 0, so a match is always read and replaced as a whole.
+ * After a result is published, each Tournament above it is recomputed from its two brackets and
+ * replaced with compare-and-set. The loop per Tournament only ends once a fresh read of both brackets
+ * agrees with the stored match, so a result that arrives concurrently is never lost: either it is
+ * seen by this re-read, or its own thread comes by afterwards.
+ */
+class ConcurrentBracket {
+    private static final long EMPTY = -1L;
+
+    ConcurrentBracket(FlatTournament f) {
+        state = new AtomicLongArray(f.playerA.length);
+        for (int i = 0; i < f.playerA.length; ++i) {
+            state.set(i, f.playerA[i] < 0 ? EMPTY : pack(f.playerA[i], f.playerB[i], f.winner[i] == f.playerA[i]));
+        }
+        players = f.players;
+    }
+
+    private static long pack(int a, int b, boolean aWins) {
+        return (long) a << 32 | (long) b << 1 | (aWins ? 1 : 0);
+    }
+
+    private static int winnerOf(long s) {
+        return (s & 1) != 0 ? (int) (s >> 32) : (int) (s >>> 1 & 0x7FFFFFFF);
+    }
+
+    int nodeCount() { return state.length(); }
+    int playerA(int i) { return (int) (state.get(i) >> 32); }
+    int playerB(int i) { return (int) (state.get(i) >>> 1 & 0x7FFFFFFF); }
+    int winner(int i) { return winnerOf(state.get(i)); }
+
+    void setWinner(int i, boolean aWins) {
+        long old;
+        do {
+            old = state.get(i);
+            if (old == EMPTY) throw new IllegalArgumentException("There is no match at position " + i);
+        } while (!state.compareAndSet(i, old, aWins ? old | 1 : old & ~1L));
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            boolean changed = false;
+            for (;;) {
+                long current = state.get(parent);
+                long updated = pack(winnerOf(state.get(2 * parent + 1)), winnerOf(state.get(2 * parent + 2)), (current & 1) != 0);
+                if (updated == current) break;
+                if (state.compareAndSet(parent, current, updated)) changed = true;
+            }
+            // whoever changed the Tournament instead of us carries on upwards
+            if (!changed) return;
+            i = parent;
+        }
+    }
+
+    // a consistent copy only if no results are being recorded at the same time
+    FlatTournament snapshot() {
+        int n = state.length();
+        int[] a = new int[n], b = new int[n], w = new int[n];
+        for (int i = 0; i < n; ++i) {
+            long s = state.get(i);
+            boolean empty = s == EMPTY;
+            a[i] = empty ? -1 : (int) (s >> 32);
+            b[i] = empty ? -1 : (int) (s >>> 1 & 0x7FFFFFFF);
+            w[i] = empty ? -1 : winnerOf(s);
+        }
+        return new FlatTournament(players, a, b, w);
+    }
+
+    private final AtomicLongArray state;
+    private final Player[] players;
+}
@@ -3,6 +3,12 @@ package decorator;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
+import java.lang.ref.WeakReference;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
 /**
  * In addition to bookings, we now offer services in our center
  * - You can use the Shower for 15 VND
@@ -16,9 +22,23 @@ import static org.junit.Assert.assertTrue;
  * At first I have a BadmintonBooking, then I wrap it with a Locker,
  * then I wrap the BadmintonBooking + Locker with a Shower,
  * finally I have a BadmintonBooking + Locker + Shower
+ *
+ * Every Booking caches its full price in `price`. A decorator remembers nothing but its own
+ * base price and the cached total of the booking it wraps, so asking for the price again is a
+ * field read. When a base price changes, invalidate() marks the booking and every decorator
+ * around it as stale; the next fullPrice() recomputes only the stale layers, in a loop rather
+ * than by recursion, so even very long chains cannot overflow the stack.
+ *
+ * A finished chain can also be compiled into a ServiceBundle: one object holding the innermost
+ * booking, the prices of the services in an int array and their total. It is a snapshot (later
+ * price changes do not reach it) and can be unwrapped into a decorator chain again.
  */
 public class Main {
     public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals("bench")) {
+            benchmark(args.length > 1 ? Integer.parseInt(args[1]) : 1_000_000);
+            return;
+        }
         System.out.println("Program started");
         BadmintonBooking b = new BadmintonBooking();
         assertEquals(90, b.fullPrice());
@@ -32,30 +52,159 @@ public class Main {
 
         s = new Shower(b);
         assertEquals(105, s.fullPrice());
+
+        Service withLocker = new Shower(new Locker(b));
+        assertEquals(115, withLocker.fullPrice());
+        b.setCourtPrice(100);
+        assertEquals(125, withLocker.fullPrice());
+        assertEquals(115, s.fullPrice());
+        assertEquals(100, b.fullPrice());
+
+        Booking deep = b;
+        for (int i = 0; i < 100_000; ++i) deep = new Locker(deep);
+        assertEquals(100 + 10 * 100_000, deep.fullPrice());
+        b.setCourtPrice(90);
+        assertEquals(90 + 10 * 100_000, deep.fullPrice());
+
+        ServiceBundle bundle = ServiceBundle.compile(new Shower(new Locker(b)));
+        assertEquals(115, bundle.fullPrice());
+        assertEquals(2, bundle.serviceCount());
+        assertTrue(bundle.hasService(Service.SHOWER) && bundle.hasService(Service.LOCKER));
+        assertTrue(bundle.base == b);
+        Service unwrapped = (Service) bundle.unwrap();
+        assertTrue(unwrapped instanceof Shower && unwrapped.wrappedBooking instanceof Locker);
+        assertEquals(115, unwrapped.fullPrice());
+        assertEquals(130, new Shower(bundle).fullPrice());
+
+        // decorators thrown away per request must not pile up on a long-lived booking
+        BadmintonBooking court = new BadmintonBooking();
+        for (int i = 0; i < 1_000_000; ++i) {
+            assertEquals(105, new Shower(court).fullPrice());
+            if (i % 100_000 == 0) System.gc();
+        }
+        assertTrue(court.wrapperCount() < 400_000);
         System.out.println("All assertions passed!");        
     }
+
+    // cost of fullPrice() on a booking wrapped in `depth` services
+    static void benchmark(int n) {
+        for (int depth : new int[] { 1, 10, 100, 1000 }) {
+            Booking b = new BadmintonBooking();
+            for (int i = 0; i < depth; ++i) b = i % 2 == 0 ? new Locker(b) : new Shower(b);
+            for (int round = 0; round < 3; ++round) {
+                long sink = 0;
+                long t0 = System.nanoTime();
+                for (int i = 0; i < n; ++i) sink += b.fullPrice();
+                long t1 = System.nanoTime();
+                System.out.printf("depth %d, round %d: fullPrice %.1f ns/op (%d)%n",
+                        depth, round, (t1 - t0) / (double) n, sink);
+            }
+        }
+    }
 }
 
 abstract class Booking {
     public abstract int basePrice();
-    public abstract int fullPrice();
+
+    public int fullPrice() {
+        if (!stale) return price;
+        // sum the base prices of the stale layers, down to the first layer whose total is still cached
+        int total = 0;
+        Booking b = this;
+        while (b.stale && b.wrapped() != null) {
+            total += b.basePrice();
+            b = b.wrapped();
+        }
+        total += b.stale ? b.basePrice() : b.price;
+        // walk the stale layers again and cache their totals
+        int remaining = total;
+        for (b = this; b != null && b.stale; b = b.wrapped()) {
+            b.price = remaining;
+            b.stale = false;
+            remaining -= b.basePrice();
+        }
+        return total;
+    }
+
+    // the booking inside this one, if this is a decorator
+    Booking wrapped() {
+        return null;
+    }
+
+    // to be called whenever basePrice() changes
+    protected void invalidate() {
+        if (stale) return; // then all decorators around it are stale already
+        stale = true;
+        ArrayDeque<Booking> todo = new ArrayDeque<>();
+        todo.push(this);
+        while (!todo.isEmpty()) {
+            Booking b = todo.pop();
+            if (b.wrappers == null) continue;
+            for (Iterator<WeakReference<Service>> it = b.wrappers.iterator(); it.hasNext(); ) {
+                Service s = it.next().get();
+                if (s == null) it.remove();
+                else if (!s.stale) {
+                    s.stale = true;
+                    todo.push(s);
+                }
+            }
+        }
+    }
+
+    void addWrapper(Service s) {
+        if (wrappers == null) wrappers = new ArrayList<>(1);
+        // drop the decorators collected meanwhile whenever the list has doubled, so it stays within
+        // twice the live decorators even if invalidate() is never called
+        if (wrappers.size() >= purgeAt) {
+            wrappers.removeIf(r -> r.get() == null);
+            purgeAt = Math.max(8, 2 * wrappers.size());
+        }
+        wrappers.add(new WeakReference<>(s));
+    }
+
+    int wrapperCount() {
+        return wrappers == null ? 0 : wrappers.size();
+    }
+
+    // the cached full price, valid when not stale
     public int price;
+    boolean stale = true;
+    // decorators around this booking; weak, so that discarded decorators can be collected
+    private List<WeakReference<Service>> wrappers;
+    private int purgeAt = 8;
 }
 
 class BadmintonBooking extends Booking {
-    @Override public int basePrice() { return 90; }
-    @Override public int fullPrice() { return basePrice(); }
+    @Override public int basePrice() { return courtPrice; }
+    void setCourtPrice(int courtPrice) {
+        this.courtPrice = courtPrice;
+        invalidate();
+    }
+    private int courtPrice = 90;
 }
 
 abstract class Service extends Booking {
     Service(Booking b) {
         wrappedBooking = b;
-        this.price += b.price;
+        b.addWrapper(this);
+    }
+    @Override
+    Booking wrapped() {
+        return wrappedBooking;
     }
-    @Override 
-    public int fullPrice() { 
-        return basePrice() + wrappedBooking.fullPrice(); 
+
+    // which service this is, one of the constants below
+    abstract int kind();
+    static final int SHOWER = 0, LOCKER = 1;
+
+    static Service of(int kind, Booking b) {
+        switch (kind) {
+            case SHOWER: return new Shower(b);
+            case LOCKER: return new Locker(b);
+            default: throw new IllegalArgumentException("Unknown service kind " + kind);
+        }
     }
+
     Booking wrappedBooking;
 }
 
@@ -64,6 +213,7 @@ class Shower extends Service {
         super(b);
     }
     @Override public int basePrice() { return 15; }
+    @Override int kind() { return SHOWER; }
 }
 
 class Locker extends Service {
@@ -72,4 +222,63 @@ class Locker extends Service {
     }
     @Override
     public int basePrice() { return 10; }
+    @Override int kind() { return LOCKER; }
+}
+
+final class ServiceBundle extends Booking {
+    private ServiceBundle(Booking base, int[] servicePrices, byte[] serviceKinds, long serviceMask, int total) {
+        this.base = base;
+        this.servicePrices = servicePrices;
+        this.serviceKinds = serviceKinds;
+        this.serviceMask = serviceMask;
+        this.total = total;
+        this.price = total;
+        this.stale = false;
+    }
+
+    static ServiceBundle compile(Booking b) {
+        int count = 0;
+        for (Booking layer = b.wrapped(); layer != null; layer = layer.wrapped()) ++count;
+        int[] prices = new int[count];
+        byte[] kinds = new byte[count];
+        long mask = 0;
+        Booking layer = b;
+        // outermost service first
+        for (int i = 0; i < count; ++i, layer = layer.wrapped()) {
+            Service s = (Service) layer;
+            prices[i] = s.basePrice();
+            kinds[i] = (byte) s.kind();
+            mask |= 1L << s.kind();
+        }
+        return new ServiceBundle(layer, prices, kinds, mask, b.fullPrice());
+    }
+
+    // the decorator view again: new Service objects around the same base booking
+    Booking unwrap() {
+        Booking b = base;
+        for (int i = serviceKinds.length - 1; i >= 0; --i) b = Service.of(serviceKinds[i], b);
+        return b;
+    }
+
+    // wrapped in another decorator, the whole bundle counts as the base price
+    @Override public int basePrice() { return total; }
+    @Override public int fullPrice() { return total; }
+
+    int serviceCount() {
+        return servicePrices.length;
+    }
+
+    int servicePrice(int i) {
+        return servicePrices[i];
+    }
+
+    boolean hasService(int kind) {
+        return (serviceMask >>> kind & 1) != 0;
+    }
+
+    final Booking base;
+    private final int[] servicePrices;
+    private final byte[] serviceKinds;
+    private final long serviceMask;
+    private final int total;
 }
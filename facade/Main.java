@@ -1,7 +1,18 @@
 package facade;
 
 import java.time.LocalDateTime;
+import java.time.ZoneOffset;
 import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * Facade is basically a class that contains a bunch of functions which you don't know where else to put
@@ -15,19 +26,190 @@ import java.time.temporal.ChronoUnit;
  * but it a different input format (Adapter's main focus is to convert data in suitable format)
  * 
  * They are similar in the sense that both reuse existing methods
+ *
+ * ExtendOneWeek also works on an EpochBooking, which keeps start and end as epoch seconds,
+ * so that extending it does not create a new LocalDateTime.
+ *
+ * Pass a BookingIndex to ExtendOneWeek.extend and it first checks that the extra week does not collide
+ * with another booking of the same room. The index keeps the bookings of each room sorted by start,
+ * so the check is a lookup in a TreeMap instead of a scan over all bookings.
+ * Run `java facade.Main bench` to compare both at 10^6 bookings.
+ *
+ * Many bookings can be paid with the same Card, from different threads. The Card keeps its balance in
+ * an AtomicLong, and ExtendOneWeek changes it once, by the difference between the new and the old
+ * price (reprice), so no other thread ever sees the balance between the refund and the payment.
+ * Card logs every change at Level.FINE, and only builds the message when that level is enabled.
  */
 
 public class Main {
     public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals("bench")) {
+            benchmark(args.length > 1 ? Integer.parseInt(args[1]) : 1_000_000);
+            benchmarkCard(1_000_000);
+            return;
+        }
         Booking b = new Booking();
-        Card c = new Card();
+        Card c = new Card(1000);
         b.card = c;
         b.price = 90;
         b.start = LocalDateTime.of(2020, 7, 1, 8, 0, 0);
         b.end = LocalDateTime.of(2020, 7, 1, 9, 0, 0);
-        c.balance = 1000; 
 
         ExtendOneWeek.extend(b);
+
+        EpochBooking e = new EpochBooking();
+        e.card = c;
+        e.price = 90;
+        e.setStart(LocalDateTime.of(2020, 7, 1, 8, 0, 0));
+        e.setEnd(LocalDateTime.of(2020, 7, 1, 9, 0, 0));
+        ExtendOneWeek.extend(e);
+        assert e.end().equals(b.end) && e.start().equals(b.start) && e.price == b.price;
+        assert c.balance() == 1000 - 70 - 70;
+
+        BookingIndex index = new BookingIndex();
+        Booking monday = booking(c, 3, LocalDateTime.of(2020, 7, 6, 8, 0, 0), 1);
+        Booking nextMonday = booking(c, 3, LocalDateTime.of(2020, 7, 13, 8, 30, 0), 1);
+        Booking otherRoom = booking(c, 4, LocalDateTime.of(2020, 7, 6, 9, 0, 0), 1);
+        assert index.add(monday) && index.add(nextMonday) && index.add(otherRoom);
+        assert !index.add(booking(c, 3, LocalDateTime.of(2020, 7, 6, 8, 59, 0), 1));
+        Booking backToBack = booking(c, 3, LocalDateTime.of(2020, 7, 6, 9, 0, 0), 1);
+        assert index.add(backToBack);
+        assert index.conflict(3, LocalDateTime.of(2020, 7, 13, 9, 0, 0), LocalDateTime.of(2020, 7, 13, 10, 0, 0), null) == nextMonday;
+        assert !ExtendOneWeek.extend(monday, index);
+        assert index.remove(backToBack);
+        assert !ExtendOneWeek.extend(monday, index); // would end at 13 July 9:00, after nextMonday starts
+        assert monday.end.getDayOfMonth() == 6 && monday.price == 90;
+        assert index.remove(nextMonday);
+        assert ExtendOneWeek.extend(monday, index) && monday.end.getDayOfMonth() == 13;
+        assert index.conflict(3, LocalDateTime.of(2020, 7, 10, 0, 0, 0), LocalDateTime.of(2020, 7, 10, 1, 0, 0), null) == monday;
+        assert c.balance() == 1000 - 3 * 70;
+
+        // an empty booking would replace the one starting at the same time
+        Booking nine = booking(c, 5, LocalDateTime.of(2020, 7, 6, 9, 0, 0), 1);
+        assert index.add(nine);
+        for (Runnable empty : new Runnable[] {
+                () -> index.add(booking(c, 5, nine.start, 0)),
+                () -> index.extend(nine, nine.start),
+                () -> index.extend(nine, nine.start.minusMinutes(1)),
+                () -> index.conflict(5, nine.end, nine.start, null)}) {
+            try {
+                empty.run();
+                assert false;
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+        assert !index.add(booking(c, 5, nine.start, 2));
+        assert index.conflict(5, nine.start.plusMinutes(30), nine.start.plusMinutes(45), null) == nine;
+        assert nine.end.equals(nine.start.plusHours(1)) && index.remove(nine);
+
+        stressTest(8, 10_000);
+        System.out.println("All assertions passed!");
+    }
+
+    static Booking booking(Card card, int room, LocalDateTime start, int hours) {
+        Booking b = new Booking();
+        b.card = card;
+        b.price = 90;
+        b.room = room;
+        b.start = start;
+        b.end = start.plusHours(hours);
+        return b;
+    }
+
+    // n one-hour bookings in 1000 rooms, every other hour; conflict checks with the index vs. a scan
+    static void benchmark(int n) {
+        int rooms = 1000, perRoom = n / rooms;
+        LocalDateTime[] slots = new LocalDateTime[2 * perRoom + 2];
+        for (int i = 0; i < slots.length; ++i) slots[i] = LocalDateTime.of(2020, 1, 1, 0, 0).plusHours(i);
+        BookingIndex index = new BookingIndex();
+        List<Booking> all = new ArrayList<>(n);
+        for (int room = 0; room < rooms; ++room) {
+            for (int k = 0; k < perRoom; ++k) {
+                Booking b = new Booking();
+                b.room = room;
+                b.start = slots[2 * k];
+                b.end = slots[2 * k + 1];
+                index.add(b);
+                all.add(b);
+            }
+        }
+        Random random = new Random(1);
+        int queries = 1_000_000, scans = 100;
+        for (int round = 0; round < 5; ++round) {
+            int conflicts = 0;
+            long t0 = System.nanoTime();
+            for (int i = 0; i < queries; ++i) {
+                int room = random.nextInt(rooms), slot = random.nextInt(2 * perRoom);
+                if (index.conflict(room, slots[slot], slots[slot + 1], null) != null) ++conflicts;
+            }
+            long t1 = System.nanoTime();
+            for (int i = 0; i < queries; ++i) {
+                int k = random.nextInt(n);
+                // two hours run into the next booking of the room, unless it is the last one
+                if (!index.extend(all.get(k), slots[2 * (k % perRoom) + 3])) ++conflicts;
+            }
+            long t2 = System.nanoTime();
+            for (int i = 0; i < scans; ++i) {
+                int room = random.nextInt(rooms), slot = random.nextInt(2 * perRoom);
+                if (scanConflict(all, room, slots[slot], slots[slot + 1]) != null) ++conflicts;
+            }
+            long t3 = System.nanoTime();
+            System.out.printf("round %d: index conflict %.1f, index extend %.1f, scan %.1f ns/op (%d)%n", round,
+                    (t1 - t0) / (double) queries, (t2 - t1) / (double) queries, (t3 - t2) / (double) scans, conflicts);
+        }
+    }
+
+    // threads extend their own bookings, all paid with one card; no payment may get lost
+    static void stressTest(int threads, int extensionsPerThread) {
+        Card card = new Card(0);
+        long elapsed = runConcurrently(card, threads, extensionsPerThread);
+        assert card.balance() == -70L * threads * extensionsPerThread : "balance " + card.balance();
+        System.out.printf("%d threads, %d extensions on one card: %.2f M extensions/s%n", threads,
+                (long) threads * extensionsPerThread, (double) threads * extensionsPerThread * 1e3 / elapsed);
+    }
+
+    static long runConcurrently(Card card, int threads, int extensionsPerThread) {
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] workers = new Thread[threads];
+        for (int w = 0; w < threads; ++w) {
+            EpochBooking b = new EpochBooking();
+            b.card = card;
+            workers[w] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int k = 0; k < extensionsPerThread; ++k) ExtendOneWeek.extend(b);
+            });
+            workers[w].start();
+        }
+        long t0 = System.nanoTime();
+        start.countDown();
+        try {
+            for (Thread w : workers) w.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return System.nanoTime() - t0;
+    }
+
+    // extensions per second on a single shared card, with 1 .. 2 * cores threads
+    static void benchmarkCard(int extensionsPerThread) {
+        for (int threads = 1; threads <= 2 * Runtime.getRuntime().availableProcessors(); threads *= 2) {
+            for (int round = 0; round < 3; ++round) {
+                long elapsed = runConcurrently(new Card(0), threads, extensionsPerThread);
+                System.out.printf("%d threads, round %d: %.2f M extensions/s%n", threads, round,
+                        (double) threads * extensionsPerThread * 1e3 / elapsed);
+            }
+        }
+    }
+
+    static Booking scanConflict(List<Booking> all, int room, LocalDateTime start, LocalDateTime end) {
+        for (Booking b : all) {
+            if (b.room == room && b.start.isBefore(end) && b.end.isAfter(start)) return b;
+        }
+        return null;
     }
 }
 
@@ -35,27 +217,133 @@ class Booking {
     public LocalDateTime start, end;
     public Card card;
     public int price;
-    void pay() {
-        card.add(-price);
+    public int room;
+    // refund the old price and pay the new one, as one change of the card balance
+    void reprice(int newPrice) {
+        card.add(price - newPrice);
+        price = newPrice;
+    }
+}
+
+/**
+ * Start and end in whole seconds since 1970-01-01T00:00 of the local time line
+ * (UTC is only a fixed reference, there is no time zone); start() and end() convert on demand.
+ */
+class EpochBooking {
+    static final long WEEK_SECONDS = 7 * 24 * 3600;
+
+    public LocalDateTime start() {
+        return LocalDateTime.ofEpochSecond(startSecond, 0, ZoneOffset.UTC);
+    }
+    public LocalDateTime end() {
+        return LocalDateTime.ofEpochSecond(endSecond, 0, ZoneOffset.UTC);
     }
-    void refund() {
-        card.add(price);
+    public void setStart(LocalDateTime start) {
+        startSecond = start.toEpochSecond(ZoneOffset.UTC);
+    }
+    public void setEnd(LocalDateTime end) {
+        endSecond = end.toEpochSecond(ZoneOffset.UTC);
+    }
+
+    public long startSecond, endSecond;
+    public Card card;
+    public int price;
+    // refund the old price and pay the new one, as one change of the card balance
+    void reprice(int newPrice) {
+        card.add(price - newPrice);
+        price = newPrice;
     }
 }
 
 class Card {
-    public int balance;
-    public void add(int amount) {        
-        balance += amount;
-        System.out.println(amount + " has been added to card.");
+    private static final Logger log = Logger.getLogger(Card.class.getName());
+
+    Card(long balance) {
+        this.balance.set(balance);
+    }
+
+    public long balance() {
+        return balance.get();
+    }
+
+    public void add(int amount) {
+        long now = balance.addAndGet(amount);
+        if (log.isLoggable(Level.FINE)) log.fine(amount + " has been added to card, balance " + now);
     }
+
+    private final AtomicLong balance = new AtomicLong();
 }
 
 class ExtendOneWeek {
     public static void extend(Booking b) {
-        b.refund();
         b.end = b.end.plus(1, ChronoUnit.WEEKS);
-        b.price += 70;
-        b.pay();
+        b.reprice(b.price + 70);
+    }
+
+    // extends only if the extra week is free in b's room; b must be in the index
+    public static boolean extend(Booking b, BookingIndex index) {
+        if (!index.extend(b, b.end.plus(1, ChronoUnit.WEEKS))) return false;
+        b.reprice(b.price + 70);
+        return true;
+    }
+
+    public static void extend(EpochBooking b) {
+        b.endSecond += EpochBooking.WEEK_SECONDS;
+        b.reprice(b.price + 70);
+    }
+}
+
+/**
+ * The bookings of every room, sorted by start. add and extend never let two bookings of a room overlap,
+ * so within a room the ends are sorted as well: of all bookings starting before `end`, the last one ends
+ * latest, and it is the only one that needs to be checked against `start`.
+ * Times are half-open, a booking ending at 9:00 does not collide with one starting at 9:00.
+ * An empty or reversed booking would break that order, so every method rejects one.
+ */
+class BookingIndex {
+    // false, and nothing changes, if b overlaps a booking of the same room
+    boolean add(Booking b) {
+        checkInterval(b.start, b.end);
+        TreeMap<LocalDateTime, Booking> timeline = rooms.computeIfAbsent(b.room, room -> new TreeMap<>());
+        if (timeline.containsKey(b.start) || conflict(timeline, b.start, b.end, null) != null) return false;
+        timeline.put(b.start, b);
+        return true;
+    }
+
+    boolean remove(Booking b) {
+        TreeMap<LocalDateTime, Booking> timeline = rooms.get(b.room);
+        return timeline != null && timeline.remove(b.start, b);
+    }
+
+    // a booking of the room overlapping [start, end), other than `ignore`, or null
+    Booking conflict(int room, LocalDateTime start, LocalDateTime end, Booking ignore) {
+        checkInterval(start, end);
+        TreeMap<LocalDateTime, Booking> timeline = rooms.get(room);
+        return timeline == null ? null : conflict(timeline, start, end, ignore);
     }
+
+    // moves the end of an indexed booking, unless it would run into the next booking of its room
+    boolean extend(Booking b, LocalDateTime newEnd) {
+        TreeMap<LocalDateTime, Booking> timeline = rooms.get(b.room);
+        if (timeline == null || timeline.get(b.start) != b) {
+            throw new IllegalArgumentException("Booking is not in the index");
+        }
+        checkInterval(b.start, newEnd);
+        if (conflict(timeline, b.start, newEnd, b) != null) return false;
+        b.end = newEnd;
+        return true;
+    }
+
+    private static void checkInterval(LocalDateTime start, LocalDateTime end) {
+        if (!start.isBefore(end)) throw new IllegalArgumentException("Booking must end after " + start + ", not at " + end);
+    }
+
+    private static Booking conflict(TreeMap<LocalDateTime, Booking> timeline, LocalDateTime start,
+                                    LocalDateTime end, Booking ignore) {
+        Map.Entry<LocalDateTime, Booking> last = timeline.lowerEntry(end);
+        if (last != null && last.getValue() == ignore) last = timeline.lowerEntry(last.getKey());
+        return last != null && last.getValue().end.isAfter(start) ? last.getValue() : null;
+    }
+
+    private final Map<Integer, TreeMap<LocalDateTime, Booking>> rooms = new HashMap<>();
 }
@@ -4,15 +4,75 @@
  * so you give a factory some information so that it can create the object for you
  */
 package factory;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
 public class Main {
     // Client code
     public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals("bench")) {
+            benchmark(args.length > 1 ? Integer.parseInt(args[1]) : 10_000_000);
+            return;
+        }
         Booking b = BookingFactory.build("Badminton", "ABC123", 5);
         assert (b instanceof BadmintonBooking);
         b = BookingFactory.build("ZumbaClass", "ABC456", 8);
         assert (b instanceof ZumbaBooking);
+        assert BookingFactory.build("Tennis", "ABC789", 1) == null;
+
+        // the type lookup can be done once, outside of the hot path
+        BookingCreator badminton = BookingFactory.resolve("Badminton");
+        assert badminton.create("XYZ", 2) instanceof BadmintonBooking;
+        assert BookingFactory.build(BookingType.ZUMBA_CLASS, "XYZ", 3) instanceof ZumbaBooking;
         System.out.println("All assertions passed!");
     }
+
+    // the original implementation, kept as a baseline for the benchmark
+    static Booking switchBuild(String type, String bookingID, int room) {
+        switch (type) {
+            case "Badminton": {
+                BadmintonBooking result = new BadmintonBooking(bookingID);
+                result.courtRoom = room;
+                return result;
+            }
+            case "ZumbaClass": {
+                ZumbaBooking result = new ZumbaBooking(bookingID);
+                result.classRoom = room;
+                return result;
+            }
+            default:
+                return null;
+        }
+    }
+
+    static void benchmark(int n) {
+        // fresh String objects, as they would come from a request, so that equals() has to compare chars
+        String[] keys = new String[1024];
+        BookingType[] types = new BookingType[keys.length];
+        for (int i = 0; i < keys.length; ++i) {
+            types[i] = (i * 31 >> 3) % 2 == 0 ? BookingType.BADMINTON : BookingType.ZUMBA_CLASS;
+            keys[i] = new String(types[i].key);
+        }
+        BookingCreator[] byOrdinal = new BookingCreator[BookingType.values().length];
+        for (BookingType t : BookingType.values()) byOrdinal[t.ordinal()] = t.creator;
+
+        for (int round = 0; round < 5; ++round) {
+            long sink = 0;
+            long t0 = System.nanoTime();
+            for (int i = 0; i < n; ++i) sink += switchBuild(keys[i & 1023], "ID", i).bookingID.length();
+            long t1 = System.nanoTime();
+            for (int i = 0; i < n; ++i) sink += BookingFactory.build(keys[i & 1023], "ID", i).bookingID.length();
+            long t2 = System.nanoTime();
+            for (int i = 0; i < n; ++i) sink += BookingFactory.build(types[i & 1023], "ID", i).bookingID.length();
+            long t3 = System.nanoTime();
+            for (int i = 0; i < n; ++i) sink += byOrdinal[types[i & 1023].ordinal()].create("ID", i).bookingID.length();
+            long t4 = System.nanoTime();
+            System.out.printf("round %d: switch %.1f, HashMap %.1f, enum %.1f, enum-indexed array %.1f ns/op (%d)%n",
+                    round, (t1 - t0) / (double) n, (t2 - t1) / (double) n, (t3 - t2) / (double) n,
+                    (t4 - t3) / (double) n, sink);
+        }
+    }
 }
 
 abstract class Booking {
@@ -36,21 +96,58 @@ class ZumbaBooking extends Booking {
     public int classRoom;
 }
 
+interface BookingCreator {
+    Booking create(String bookingID, int room);
+}
+
+// The built-in booking kinds. Building through the enum skips the String lookup entirely
+enum BookingType {
+    BADMINTON("Badminton", (bookingID, room) -> {
+        BadmintonBooking result = new BadmintonBooking(bookingID);
+        result.courtRoom = room;
+        return result;
+    }),
+    ZUMBA_CLASS("ZumbaClass", (bookingID, room) -> {
+        ZumbaBooking result = new ZumbaBooking(bookingID);
+        result.classRoom = room;
+        return result;
+    });
+
+    BookingType(String key, BookingCreator creator) {
+        this.key = key;
+        this.creator = creator;
+    }
+    final String key;
+    final BookingCreator creator;
+}
+
+/**
+ * New kinds of bookings can be registered at startup with `register`.
+ * Callers on a hot path should `resolve` the type once and keep the BookingCreator,
+ * or use the BookingType overload, instead of looking the String up on every call.
+ */
 class BookingFactory {
-    public static Booking build(String type, String bookingID, int room) {
-        switch (type) {
-            case "Badminton": {
-                BadmintonBooking result = new BadmintonBooking(bookingID);
-                result.courtRoom = room;
-                return result;
-            }
-            case "ZumbaClass": {
-                ZumbaBooking result = new ZumbaBooking(bookingID);
-                result.classRoom = room;
-                return result;
-            }
-            default:
-                return null;
+    private static final Map<String, BookingCreator> registry = new ConcurrentHashMap<>();
+    static {
+        for (BookingType t : BookingType.values()) register(t.key, t.creator);
+    }
+
+    static void register(String type, BookingCreator creator) {
+        if (registry.putIfAbsent(type, creator) != null) {
+            throw new IllegalArgumentException("Booking type " + type + " is already registered");
         }
     }
+
+    static BookingCreator resolve(String type) {
+        return registry.get(type);
+    }
+
+    public static Booking build(String type, String bookingID, int room) {
+        BookingCreator creator = registry.get(type);
+        return creator == null ? null : creator.create(bookingID, room);
+    }
+
+    public static Booking build(BookingType type, String bookingID, int room) {
+        return type.creator.create(bookingID, room);
+    }
 }
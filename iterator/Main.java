@@ -1,8 +1,16 @@
 package iterator;
 
-import java.util.LinkedList;
-import java.util.Queue;
-import java.util.Stack;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.function.BiPredicate;
+import java.util.function.LongFunction;
+import java.util.function.LongPredicate;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 /**
  * You are organizing a champion league.
@@ -16,10 +24,28 @@ import java.util.Stack;
  * - hasNext(): if there is any node left unvisited
  * - next(): return a node in the traverse order
  *
+ * Both iterators keep their pending nodes in a MatchDeque (a growable ring buffer)
+ * and can be pointed at another tree with reset(root), so one iterator instance can
+ * traverse many trees without allocating once the buffer is large enough.
+ * A DepthIterator visits the matches in the same order as a DFSIterator and also tells the depth
+ * of each one, e.g. to indent the output, without any recursion.
+ *
+ * Because the iterators only ask a Tournament for its brackets (left(), right()), they also work on
+ * a LazyBracket: a bracket far too big to build up front, whose matches are created from a
+ * BracketSource when they are first visited and kept in a bounded cache.
+ *
+ * Instead of wiring m1..m4, t1, t2 and t by hand, a BracketBuilder takes the players one by one
+ * and assembles the bracket bottom-up, keeping only one unfinished subtree per round. When the number
+ * of players is not a power of two, some of them get a walkover in the first round.
+ *
  */
 
 public class Main {
     public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals("bench")) {
+            benchmark(args.length > 1 ? Integer.parseInt(args[1]) : 1_000_000);
+            return;
+        }
         Player[] players = new Player[8];
         for (int i = 0; i < 8; ++i) players[i] = new Player(String.valueOf(i));
 
@@ -55,6 +81,127 @@ public class Main {
             System.out.print(bfs.next().toString() + " ");
         }
         System.out.println();
+
+        DFSIterator reused = new DFSIterator(t1, 4);
+        int visited = 0;
+        while (reused.hasNext()) { reused.next(); ++visited; }
+        reused.reset(t);
+        while (reused.hasNext()) { reused.next(); ++visited; }
+        assert visited == 3 + 7;
+
+        // past the end next() throws and leaves the iterator as it was
+        for (Iterator it : new Iterator[] {reused, new BFSIterator(t1), new DepthIterator(t1)}) {
+            while (it.hasNext()) it.next();
+            try {
+                it.next();
+                assert false;
+            } catch (NoSuchElementException expectedAtEnd) {
+                assert !it.hasNext();
+            }
+        }
+        reused.reset(t1);
+        visited = 0;
+        while (reused.hasNext()) { reused.next(); ++visited; }
+        assert visited == 3;
+
+        // the same bracket as t, created on demand
+        LazyBracket lazy = new LazyBracket(3, seed -> players[(int) seed], match -> true, 4);
+        StringBuilder expected = new StringBuilder(), actual = new StringBuilder();
+        for (Iterator it = new DFSIterator(t); it.hasNext(); ) expected.append(it.next());
+        for (Iterator it = new DFSIterator(lazy.root()); it.hasNext(); ) actual.append(it.next());
+        assert expected.toString().equals(actual.toString());
+
+        // 2^20 players, but never more than 1024 matches cached
+        LazyBracket huge = new LazyBracket(20, seed -> new Player(String.valueOf(seed)), match -> match % 3 != 0, 1024);
+        int matches = 0;
+        for (Iterator it = new DFSIterator(huge.root(), 32); it.hasNext(); it.next()) ++matches;
+        assert matches == (1 << 20) - 1 && huge.cached() <= 1024;
+
+        Match built = BracketBuilder.build(Stream.of(players), (a, b) -> true);
+        StringBuilder fromBuilder = new StringBuilder();
+        for (Iterator it = new DFSIterator(built); it.hasNext(); ) fromBuilder.append(it.next());
+        assert fromBuilder.toString().equals(expected.toString());
+
+        // 5 players: 0 and 1 play the only real first round match, 2, 3 and 4 get a walkover
+        Match odd = BracketBuilder.build(IntStream.range(0, 5).mapToObj(i -> players[i]), (a, b) -> true);
+        assert odd.toString().equals("[0, 3]");
+        int oddMatches = 0;
+        for (Iterator it = new DFSIterator(odd); it.hasNext(); it.next()) ++oddMatches;
+        assert oddMatches == 7;
+
+        // 17 players fill a bracket of 32: 15 of them get a walkover, every other match has two real players
+        Player[] seventeen = new Player[17];
+        for (int i = 0; i < seventeen.length; ++i) seventeen[i] = new Player(String.valueOf(i));
+        Match padded = BracketBuilder.build(Stream.of(seventeen), (a, b) -> true);
+        int walkovers = 0, allMatches = 0;
+        Map<Player, Integer> firstRoundOf = new LinkedHashMap<>();
+        for (DepthIterator it = new DepthIterator(padded); it.hasNext(); ++allMatches) {
+            Match m = it.next();
+            assert m.playerA != BracketBuilder.BYE;
+            if (m.playerB == BracketBuilder.BYE) {
+                assert m instanceof SingleMatch;
+                ++walkovers;
+            }
+            if (!(m instanceof SingleMatch)) continue;
+            assert it.depth() == 4;
+            firstRoundOf.merge(m.playerA, 1, Integer::sum);
+            if (m.playerB != BracketBuilder.BYE) firstRoundOf.merge(m.playerB, 1, Integer::sum);
+        }
+        assert walkovers == 15 && allMatches == 31 && padded.toString().equals("[0, 9]");
+        assert firstRoundOf.size() == 17 && firstRoundOf.values().stream().allMatch(c -> c == 1);
+
+        StringBuilder depths = new StringBuilder();
+        for (DepthIterator it = new DepthIterator(t); it.hasNext(); ) {
+            it.next();
+            depths.append(it.depth());
+        }
+        assert depths.toString().equals("0122122");
+        int deepest = 0;
+        for (DepthIterator it = new DepthIterator(huge.root()); it.hasNext(); ) {
+            it.next();
+            deepest = Math.max(deepest, it.depth());
+        }
+        assert deepest == 19;
+        System.out.println("All assertions passed!");
+    }
+
+    // a balanced bracket with `singleMatches` leaves, i.e. 2 * singleMatches - 1 matches
+    static Match bracket(int singleMatches, Player[] players) {
+        if (singleMatches == 1) return new SingleMatch(players[0], players[1], true);
+        int half = singleMatches / 2;
+        return new Tournament(bracket(half, players), bracket(singleMatches - half, players), true);
+    }
+
+    // DFS/BFS traversal of brackets with 10^3 .. maxMatches matches
+    static void benchmark(int maxMatches) {
+        Player[] players = { new Player("0"), new Player("1") };
+        DFSIterator dfs = new DFSIterator(null, 64);
+        BFSIterator bfs = new BFSIterator(null, 64);
+        for (int matches = 1000; matches <= maxMatches; matches *= 10) {
+            Match tree = bracket((matches + 1) / 2, players);
+            for (int round = 0; round < 3; ++round) {
+                long sink = 0;
+                long t0 = System.nanoTime();
+                dfs.reset(tree);
+                while (dfs.hasNext()) sink += dfs.next().playerA.name.length();
+                long t1 = System.nanoTime();
+                bfs.reset(tree);
+                while (bfs.hasNext()) sink += bfs.next().playerA.name.length();
+                long t2 = System.nanoTime();
+                System.out.printf("%d matches, round %d: DFS %.1f, BFS %.1f ns/match (%d)%n", matches, round,
+                        (t1 - t0) / (double) matches, (t2 - t1) / (double) matches, sink);
+            }
+        }
+        for (int levels = 16; levels <= 24; levels += 4) {
+            LazyBracket lazy = new LazyBracket(levels, seed -> players[(int) (seed & 1)], match -> (match & 1) == 0, 1 << 12);
+            long sink = 0;
+            long t0 = System.nanoTime();
+            dfs.reset(lazy.root());
+            while (dfs.hasNext()) sink += dfs.next().playerA.name.length();
+            long t1 = System.nanoTime();
+            System.out.printf("lazy bracket of 2^%d players: DFS %.1f ns/match (%d)%n", levels,
+                    (t1 - t0) / (double) ((1L << levels) - 1), sink);
+        }
     }
 }
 
@@ -89,6 +236,15 @@ class Tournament extends Match {
         playerB = r.winner;
         if (lWins) winner = playerA; else winner = playerB;
     }
+    // for subclasses that find their players and brackets themselves
+    Tournament() {}
+
+    Match left() {
+        return leftBracket;
+    }
+    Match right() {
+        return rightBracket;
+    }
     public Match leftBracket, rightBracket;
 }
 
@@ -103,10 +259,70 @@ interface Iterator {
     Match next();
 }
 
+class MatchDeque {
+    MatchDeque(int capacity) {
+        elements = new Match[Integer.highestOneBit(Math.max(2, capacity) - 1) << 1];
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    void addLast(Match m) {
+        if (size == elements.length) grow();
+        elements[(head + size) & (elements.length - 1)] = m;
+        ++size;
+    }
+
+    Match pollLast() {
+        if (size == 0) throw new NoSuchElementException();
+        int i = (head + --size) & (elements.length - 1);
+        Match result = elements[i];
+        elements[i] = null;
+        return result;
+    }
+
+    Match pollFirst() {
+        if (size == 0) throw new NoSuchElementException();
+        Match result = elements[head];
+        elements[head] = null;
+        head = (head + 1) & (elements.length - 1);
+        --size;
+        return result;
+    }
+
+    void clear() {
+        while (size > 0) pollLast();
+        head = 0;
+    }
+
+    private void grow() {
+        Match[] bigger = new Match[elements.length << 1];
+        int firstPart = Math.min(size, elements.length - head);
+        System.arraycopy(elements, head, bigger, 0, firstPart);
+        System.arraycopy(elements, 0, bigger, firstPart, size - firstPart);
+        elements = bigger;
+        head = 0;
+    }
+
+    private Match[] elements;
+    private int head, size;
+}
+
+// expectedCapacity: the depth of the tree + 1 is enough for a DFS
 class DFSIterator implements Iterator {
     DFSIterator(Match root) {
-        s = new Stack<>();
-        s.add(root);
+        this(root, 16);
+    }
+
+    DFSIterator(Match root, int expectedCapacity) {
+        s = new MatchDeque(expectedCapacity);
+        s.addLast(root);
+    }
+
+    void reset(Match root) {
+        s.clear();
+        s.addLast(root);
     }
 
     @Override
@@ -116,21 +332,31 @@ class DFSIterator implements Iterator {
 
     @Override
     public Match next() {
-        Match result = s.pop();
+        Match result = s.pollLast();
         if (result instanceof SingleMatch) return result;
         Tournament t = (Tournament) result;
-        s.add(t.rightBracket);
-        s.add(t.leftBracket);
+        s.addLast(t.right());
+        s.addLast(t.left());
         return result;
     }
 
-    private Stack<Match> s;
+    private final MatchDeque s;
 }
 
+// expectedCapacity: the number of SingleMatches is enough for a BFS
 class BFSIterator implements Iterator {
     BFSIterator(Match root) {
-        q = new LinkedList<>();
-        q.add(root);
+        this(root, 16);
+    }
+
+    BFSIterator(Match root, int expectedCapacity) {
+        q = new MatchDeque(expectedCapacity);
+        q.addLast(root);
+    }
+
+    void reset(Match root) {
+        q.clear();
+        q.addLast(root);
     }
 
     @Override
@@ -140,14 +366,219 @@ class BFSIterator implements Iterator {
 
     @Override
     public Match next() {
-        Match result = q.poll();
+        Match result = q.pollFirst();
         if (result instanceof SingleMatch) return result;
         Tournament t = (Tournament) result;
-        q.add(t.leftBracket);
-        q.add(t.rightBracket);
+        q.addLast(t.left());
+        q.addLast(t.right());
         return result;
     }
 
-    private Queue<Match> q;
+    private final MatchDeque q;
 }
 
+// pre-order like DFSIterator; depth() is the depth of the match last returned by next(), 0 for the root
+class DepthIterator implements Iterator {
+    DepthIterator(Match root) {
+        reset(root);
+    }
+
+    void reset(Match root) {
+        Arrays.fill(matches, 0, size, null);
+        matches[0] = root;
+        depths[0] = 0;
+        size = 1;
+    }
+
+    int depth() {
+        return depth;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return size > 0;
+    }
+
+    @Override
+    public Match next() {
+        if (size == 0) throw new NoSuchElementException();
+        Match result = matches[--size];
+        matches[size] = null;
+        depth = depths[size];
+        if (result instanceof SingleMatch) return result;
+        Tournament t = (Tournament) result;
+        if (size + 2 > matches.length) {
+            matches = Arrays.copyOf(matches, matches.length << 1);
+            depths = Arrays.copyOf(depths, depths.length << 1);
+        }
+        matches[size] = t.right();
+        depths[size++] = depth + 1;
+        matches[size] = t.left();
+        depths[size++] = depth + 1;
+        return result;
+    }
+
+    private Match[] matches = new Match[16];
+    private int[] depths = new int[16];
+    private int size, depth;
+}
+
+/**
+ * Describes a bracket without building it. Matches are numbered like a heap:
+ * the final is match 1, and the brackets of match m are matches 2m and 2m + 1.
+ * The first round match m plays seeds 2k and 2k + 1, where k is its position in that round.
+ */
+interface BracketSource {
+    Player player(long seed);
+    boolean aWins(long match);
+}
+
+class LazyBracket {
+    LazyBracket(int levels, LongFunction<Player> players, LongPredicate aWins, int cacheSize) {
+        this(levels, new BracketSource() {
+            public Player player(long seed) { return players.apply(seed); }
+            public boolean aWins(long match) { return aWins.test(match); }
+        }, cacheSize);
+    }
+
+    // `levels` rounds, i.e. 2^levels players; at most `cacheSize` matches are kept
+    LazyBracket(int levels, BracketSource source, int cacheSize) {
+        this.levels = levels;
+        this.source = source;
+        this.firstRound = 1L << (levels - 1);
+        this.cache = new LinkedHashMap<Long, Match>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Match> eldest) {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+    Match root() {
+        return match(1);
+    }
+
+    synchronized Match match(long id) {
+        Match m = cache.get(id);
+        if (m == null) {
+            m = id >= firstRound ? firstRoundMatch(id) : new LazyTournament(this, id);
+            cache.put(id, m);
+        }
+        return m;
+    }
+
+    int cached() {
+        return cache.size();
+    }
+
+    private SingleMatch firstRoundMatch(long id) {
+        long k = id - firstRound;
+        return new SingleMatch(source.player(2 * k), source.player(2 * k + 1), source.aWins(id));
+    }
+
+    // follows the winners down to the first round: O(levels), without creating any match
+    Player winnerOf(long id) {
+        while (id < firstRound) id = source.aWins(id) ? 2 * id : 2 * id + 1;
+        return source.player(2 * (id - firstRound) + (source.aWins(id) ? 0 : 1));
+    }
+
+    final int levels;
+    final BracketSource source;
+    private final long firstRound;
+    private final Map<Long, Match> cache;
+}
+
+// Knows only its players; the brackets come from the LazyBracket (and its cache) when asked for
+class LazyTournament extends Tournament {
+    LazyTournament(LazyBracket bracket, long id) {
+        this.bracket = bracket;
+        this.id = id;
+        playerA = bracket.winnerOf(2 * id);
+        playerB = bracket.winnerOf(2 * id + 1);
+        winner = bracket.source.aWins(id) ? playerA : playerB;
+    }
+
+    @Override
+    Match left() {
+        return bracket.match(2 * id);
+    }
+    @Override
+    Match right() {
+        return bracket.match(2 * id + 1);
+    }
+
+    private final LazyBracket bracket;
+    private final long id;
+}
+
+/**
+ * Builds a bracket from players given one at a time. The players are kept until build(), which needs
+ * their number: n players fill a bracket of the next power of two, p, so p - n of them play BYE in the
+ * first round (a walkover). These byes are spread evenly over the first round and nobody gets two,
+ * and no match is created in which only BYE plays.
+ * The first round matches are then merged like a binary counter: stack[k] is the unfinished subtree
+ * of round levels[k], and a new subtree is merged with the one below as long as both belong to the
+ * same round. At most one subtree per round is pending.
+ */
+class BracketBuilder {
+    static final Player BYE = new Player("bye");
+
+    // aWins.test(a, b): does a beat b?
+    BracketBuilder(BiPredicate<Player, Player> aWins) {
+        this.aWins = aWins;
+    }
+
+    static Match build(java.util.Iterator<Player> players, BiPredicate<Player, Player> aWins) {
+        BracketBuilder builder = new BracketBuilder(aWins);
+        while (players.hasNext()) builder.add(players.next());
+        return builder.build();
+    }
+
+    static Match build(Stream<Player> players, BiPredicate<Player, Player> aWins) {
+        return build(players.iterator(), aWins);
+    }
+
+    BracketBuilder add(Player p) {
+        players.add(p);
+        return this;
+    }
+
+    // the bracket of all players added so far; the builder is empty again afterwards
+    Match build() {
+        int n = players.size();
+        if (n == 0) throw new IllegalStateException("A bracket needs at least one player");
+        int firstRound = n == 1 ? 1 : Integer.highestOneBit(n - 1);
+        int byes = 2 * firstRound - n;
+        int next = 0;
+        for (int i = 0; i < firstRound; ++i) {
+            // Bresenham: match i is a walkover whenever the share of byes so far passes a whole number
+            if ((long) (i + 1) * byes / firstRound > (long) i * byes / firstRound) {
+                push(new SingleMatch(players.get(next++), BYE, true), 0);
+            } else {
+                Player a = players.get(next++), b = players.get(next++);
+                push(new SingleMatch(a, b, aWins.test(a, b)), 0);
+            }
+        }
+        players.clear();
+        return stack[--top];
+    }
+
+    private void push(Match m, int level) {
+        while (top > 0 && levels[top - 1] == level) {
+            m = join(stack[--top], m);
+            ++level;
+        }
+        stack[top] = m;
+        levels[top++] = level;
+    }
+
+    private Match join(Match left, Match right) {
+        return new Tournament(left, right, aWins.test(left.winner, right.winner));
+    }
+
+    private final BiPredicate<Player, Player> aWins;
+    private final List<Player> players = new ArrayList<>();
+    private final Match[] stack = new Match[64];
+    private final int[] levels = new int[64];
+    private int top;
+}
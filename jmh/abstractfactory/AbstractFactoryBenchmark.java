@@ -0,0 +1,93 @@
+package abstractfactory;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+// creation throughput: one booking at a time, from all threads at once, and whole imports with buildAll
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class AbstractFactoryBenchmark {
+    static final String[] TIERS = { "Premium", "Standard" };
+    static final String[] TYPES = { "Badminton", "Zumba" };
+
+    @State(Scope.Thread)
+    public static class Counter {
+        int i;
+    }
+
+    // rows sorted by tier and type, as they usually come out of an export
+    @State(Scope.Benchmark)
+    public static class Import {
+        @Param({ "10000" })
+        int rows;
+        String[] tiers, types, ids, infos;
+        int[] rooms;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            tiers = new String[rows];
+            types = new String[rows];
+            ids = new String[rows];
+            infos = new String[rows];
+            rooms = new int[rows];
+            for (int i = 0; i < rows; ++i) {
+                tiers[i] = i < rows / 2 ? "Premium" : "Standard";
+                types[i] = (i / 1000) % 2 == 0 ? "Badminton" : "Zumba";
+                ids[i] = "ID";
+                rooms[i] = i;
+                infos[i] = "info";
+            }
+        }
+    }
+
+    @Benchmark
+    public Booking getFactoryAndBuild(Counter c) {
+        int i = ++c.i;
+        return AbstractFactory.getFactory(TIERS[i & 1]).build(TYPES[(i >> 1) & 1], "ID", i, "info");
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public Booking getFactoryAndBuildAllThreads(Counter c) {
+        int i = ++c.i;
+        return AbstractFactory.getFactory(TIERS[i & 1]).build(TYPES[(i >> 1) & 1], "ID", i, "info");
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public Booking[] perCallImport(Import in) {
+        Booking[] result = new Booking[in.rows];
+        for (int i = 0; i < in.rows; ++i) {
+            result[i] = AbstractFactory.getFactory(in.tiers[i]).build(in.types[i], in.ids[i], in.rooms[i], in.infos[i]);
+        }
+        return result;
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public Booking[] buildAll(Import in) {
+        return AbstractFactory.buildAll(in.tiers, in.types, in.ids, in.rooms, in.infos, false);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public Booking[] parallelBuildAll(Import in) {
+        return AbstractFactory.buildAll(in.tiers, in.types, in.ids, in.rooms, in.infos, true);
+    }
+}
@@ -0,0 +1,118 @@
+package adapter;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * extendTo directly, through a new adapter, a reused one and the registry; extendBy on LocalDateTime
+ * vs. epoch seconds; and BulkExtension over 10^4 mixed bookings (per booking: divide by 10^4).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class AdapterBenchmark {
+    static final int BOOKINGS = 10_000;
+    LocalDateTime[] ends = new LocalDateTime[64];
+    BadmintonBooking badminton = new BadmintonBooking();
+    ZumbaBooking zumba = new ZumbaBooking();
+    EpochZumbaBooking epochZumba = new EpochZumbaBooking();
+    ZumbaBookingAdapter reused;
+    List<Booking> bookings = new ArrayList<>();
+    List<EpochBooking> epochBookings = new ArrayList<>();
+    LocalDateTime[] closing = new LocalDateTime[2];
+    long[] closingSecond = new long[2];
+    int i;
+
+    @Setup
+    public void setUp() {
+        LocalDateTime start = LocalDateTime.of(2020, 7, 1, 10, 0, 0);
+        for (int k = 0; k < ends.length; ++k) ends[k] = start.plusMinutes(k);
+        badminton.end = zumba.end = start;
+        epochZumba.setEnd(start);
+        reused = new ZumbaBookingAdapter(zumba);
+        for (int k = 0; k < BOOKINGS; ++k) {
+            Booking b = k % 2 == 0 ? new BadmintonBooking() : new ZumbaBooking();
+            b.end = start.plusMinutes(k % 600);
+            bookings.add(b);
+            EpochBooking e = k % 2 == 0 ? new EpochBadmintonBooking() : new EpochZumbaBooking();
+            e.setEnd(b.end);
+            epochBookings.add(e);
+        }
+        for (int k = 0; k < 2; ++k) {
+            closing[k] = start.plusHours(12 + k);
+            closingSecond[k] = EpochBooking.toEpochSecond(closing[k]);
+        }
+    }
+
+    @Benchmark
+    public LocalDateTime direct() {
+        badminton.extendTo(ends[++i & 63]);
+        return badminton.end;
+    }
+
+    @Benchmark
+    public LocalDateTime newAdapter() {
+        new ZumbaBookingAdapter(zumba).extendTo(ends[++i & 63]);
+        return zumba.end;
+    }
+
+    @Benchmark
+    public LocalDateTime reusedAdapter() {
+        reused.extendTo(ends[++i & 63]);
+        return zumba.end;
+    }
+
+    @Benchmark
+    public LocalDateTime registry() {
+        ZumbaBookingAdapter.of(zumba).extendTo(ends[++i & 63]);
+        return zumba.end;
+    }
+
+    @Benchmark
+    public LocalDateTime extendByLocalDateTime() {
+        zumba.extendBy((++i & 1) == 0 ? 15 : -15);
+        return zumba.end;
+    }
+
+    @Benchmark
+    public long extendByEpochSeconds() {
+        epochZumba.extendBy((++i & 1) == 0 ? 15 : -15);
+        return epochZumba.endSecond;
+    }
+
+    @Benchmark
+    public int adapterPerBooking() {
+        LocalDateTime newEnd = closing[++i & 1];
+        for (Booking b : bookings) {
+            if (b instanceof ZumbaBooking) new ZumbaBookingAdapter((ZumbaBooking) b).extendTo(newEnd);
+            else ((BadmintonBooking) b).extendTo(newEnd);
+        }
+        return bookings.size();
+    }
+
+    @Benchmark
+    public int bulk() {
+        return BulkExtension.extendTo(bookings, closing[++i & 1]);
+    }
+
+    @Benchmark
+    public int bulkOnEpochBookings() {
+        return BulkExtension.extendTo(epochBookings, closingSecond[++i & 1]);
+    }
+}
@@ -0,0 +1,72 @@
+package composite;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// traversals of a balanced bracket with 2^levels - 1 matches (10 .. 23 levels: about 10^3 .. 10^7)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Thread)
+public class CompositeBenchmark {
+    @Param({ "10", "13", "17", "20", "23" })
+    int levels;
+    Match tree;
+    FlatTournament flat;
+    StringBuilder out = new StringBuilder();
+    int count;
+
+    @Setup
+    public void setUp() {
+        Player[] players = new Player[1 << levels];
+        for (int i = 0; i < players.length; ++i) players[i] = new Player(String.valueOf(i));
+        tree = Main.balancedBracket(levels, players, 0);
+        flat = FlatTournament.of(tree);
+    }
+
+    @Benchmark
+    public int objectDFS() {
+        return Main.countDFS(tree);
+    }
+
+    @Benchmark
+    public int flatDFS() {
+        count = 0;
+        flat.dfs(i -> ++count);
+        return count;
+    }
+
+    @Benchmark
+    public int flatBFS() {
+        count = 0;
+        flat.bfs(i -> ++count);
+        return count;
+    }
+
+    @Benchmark
+    public int renderDFS() throws IOException {
+        out.setLength(0);
+        tree.renderDFS(out);
+        return out.length();
+    }
+
+    @Benchmark
+    public long stream() {
+        // filter drops SIZED, otherwise count() would not traverse at all
+        return tree.stream().filter(m -> m instanceof SingleMatch).count();
+    }
+}
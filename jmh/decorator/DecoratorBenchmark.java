@@ -0,0 +1,56 @@
+package decorator;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// fullPrice() of a booking wrapped in `depth` services: cached, right after the court price changed, and compiled
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class DecoratorBenchmark {
+    @Param({ "1", "10", "100", "1000" })
+    int depth;
+    BadmintonBooking base;
+    Booking wrapped;
+    ServiceBundle bundle;
+    int i;
+
+    @Setup
+    public void setUp() {
+        base = new BadmintonBooking();
+        Booking b = base;
+        for (int k = 0; k < depth; ++k) b = k % 2 == 0 ? new Locker(b) : new Shower(b);
+        wrapped = b;
+        bundle = ServiceBundle.compile(wrapped);
+    }
+
+    @Benchmark
+    public int cached() {
+        return wrapped.fullPrice();
+    }
+
+    @Benchmark
+    public int afterPriceChange() {
+        base.setCourtPrice(90 + (++i & 1));
+        return wrapped.fullPrice();
+    }
+
+    @Benchmark
+    public int serviceBundle() {
+        return bundle.fullPrice();
+    }
+}
@@ -0,0 +1,61 @@
+package factory;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Building a booking from its type: switch on the String, HashMap lookup, the BookingType enum
+ * and an array indexed by the enum ordinal. The type keys are fresh Strings, as they would come
+ * from a request, so equals() has to compare chars.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class FactoryBenchmark {
+    String[] keys = new String[1024];
+    BookingType[] types = new BookingType[keys.length];
+    BookingCreator[] byOrdinal = new BookingCreator[BookingType.values().length];
+    int i;
+
+    @Setup
+    public void setUp() {
+        for (int k = 0; k < keys.length; ++k) {
+            types[k] = (k * 31 >> 3) % 2 == 0 ? BookingType.BADMINTON : BookingType.ZUMBA_CLASS;
+            keys[k] = new String(types[k].key);
+        }
+        for (BookingType t : BookingType.values()) byOrdinal[t.ordinal()] = t.creator;
+    }
+
+    @Benchmark
+    public Booking switchOnString() {
+        return Main.switchBuild(keys[++i & 1023], "ID", i);
+    }
+
+    @Benchmark
+    public Booking hashMap() {
+        return BookingFactory.build(keys[++i & 1023], "ID", i);
+    }
+
+    @Benchmark
+    public Booking bookingType() {
+        return BookingFactory.build(types[++i & 1023], "ID", i);
+    }
+
+    @Benchmark
+    public Booking enumIndexedArray() {
+        return byOrdinal[types[++i & 1023].ordinal()].create("ID", i);
+    }
+}
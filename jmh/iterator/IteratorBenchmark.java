@@ -0,0 +1,64 @@
+package iterator;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// full traversals of a balanced bracket; divide by `matches` for the cost per match
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Thread)
+public class IteratorBenchmark {
+    @Param({ "1000", "10000", "100000", "1000000", "10000000" })
+    int matches;
+    Match tree;
+    DFSIterator dfs;
+    BFSIterator bfs;
+    DepthIterator depth;
+
+    @Setup
+    public void setUp() {
+        Player[] players = { new Player("0"), new Player("1") };
+        tree = Main.bracket((matches + 1) / 2, players);
+        dfs = new DFSIterator(null, 64);
+        bfs = new BFSIterator(null, matches / 2 + 1);
+        depth = new DepthIterator(tree);
+    }
+
+    @Benchmark
+    public int dfs() {
+        int n = 0;
+        for (dfs.reset(tree); dfs.hasNext(); dfs.next()) ++n;
+        return n;
+    }
+
+    @Benchmark
+    public int bfs() {
+        int n = 0;
+        for (bfs.reset(tree); bfs.hasNext(); bfs.next()) ++n;
+        return n;
+    }
+
+    @Benchmark
+    public long dfsWithDepth() {
+        long total = 0;
+        for (depth.reset(tree); depth.hasNext(); ) {
+            depth.next();
+            total += depth.depth();
+        }
+        return total;
+    }
+}
@@ -0,0 +1,68 @@
+package prototype;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cloning the prototype vs. fresh construction vs. the pool. 1024 bookings are in flight:
+ * each new booking replaces (and, when pooled, releases) the oldest one.
+ * Run with `-prof gc` to see the allocation rate of each.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class PrototypeBenchmark {
+    Booking[] inFlight = new Booking[1024];
+    Booking[] pooled = new Booking[1024];
+    PrintStream console;
+    int i;
+
+    @Setup
+    public void setUp() {
+        // a freshly constructed Booking prints a line
+        console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        for (int k = 0; k < pooled.length; ++k) pooled[k] = BookingFactory.acquire(BookingType.BADMINTON, "ID", k);
+    }
+
+    @TearDown
+    public void tearDown() {
+        for (Booking b : pooled) BookingFactory.release(b);
+        System.setOut(console);
+    }
+
+    @Benchmark
+    public Booking cloned() {
+        return inFlight[++i & 1023] = BookingFactory.build(BookingType.BADMINTON, "ID", i);
+    }
+
+    @Benchmark
+    public Booking freshConstruction() {
+        BadmintonBooking b = new BadmintonBooking("ID");
+        b.courtRoom = ++i;
+        return inFlight[i & 1023] = b;
+    }
+
+    @Benchmark
+    public Booking pooled() {
+        int k = ++i & 1023;
+        BookingFactory.release(pooled[k]);
+        return pooled[k] = BookingFactory.acquire(BookingType.BADMINTON, "ID", i);
+    }
+}
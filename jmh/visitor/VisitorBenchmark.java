@@ -0,0 +1,70 @@
+package visitor;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// full traversals of a balanced bracket; divide by `matches` for the cost per match
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Thread)
+public class VisitorBenchmark {
+    @Param({ "1000", "10000", "100000", "1000000", "10000000" })
+    int matches;
+    Match tree;
+    StringBuilder out = new StringBuilder();
+    HeightVisitor height = new HeightVisitor();
+    // the same visitor, going through m.accept(v, depth) for every match
+    HeightVisitor acceptHeight = new HeightVisitor() {
+        @Override
+        public int visit(Match m, int depth) {
+            return m.accept(this, depth);
+        }
+    };
+
+    @Setup
+    public void setUp() {
+        Player[] players = { new Player("0"), new Player("1") };
+        tree = Main.bracket((matches + 1) / 2, players);
+    }
+
+    @Benchmark
+    public int printDepth() {
+        out.setLength(0);
+        tree.accept(new PrintDepth(out));
+        return out.length();
+    }
+
+    @Benchmark
+    public DepthStats sequential() {
+        return ParallelVisitor.sequential(tree, 0, new DepthStatsVisitor());
+    }
+
+    @Benchmark
+    public DepthStats parallel() {
+        return ParallelVisitor.run(tree, new DepthStatsVisitor(), 10_000);
+    }
+
+    @Benchmark
+    public int doubleDispatch() {
+        return acceptHeight.visit(tree, 0);
+    }
+
+    @Benchmark
+    public int switchDispatch() {
+        return height.visit(tree, 0);
+    }
+}
@@ -1,14 +1,33 @@
 package prototype;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
 import java.time.LocalDate;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
 
 /**
  * Basic idea: You want an object, but instead of creating it, you clone an
  * existing object (called a prototype), and make modification to your object
  * later
+ *
+ * When bookings only live for a short time, even the clones can be recycled:
+ * BookingFactory.acquire takes a booking from a BookingPool (or clones a new one if the
+ * pool is empty), and BookingFactory.release resets it and puts it back.
+ * Start the JVM with -Dprototype.pool.debug=true to track bookings that are never released:
+ * BookingFactory.outstanding() counts them, reportLeaks prints where each one was acquired,
+ * and the leaks left at exit are reported on System.err.
  */
 public class Main {
     // Client code
     public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals("bench")) {
+            benchmark(args.length > 1 ? Integer.parseInt(args[1]) : 1_000_000);
+            return;
+        }
         System.out.println("Program started.");
         Booking b1 = BookingFactory.build("Badminton", "ABC123", 5);
         Booking b2 = BookingFactory.build("ZumbaClass", "ABC456", 8);
@@ -17,7 +36,95 @@ public class Main {
 
         // We have 4 bookings
         // But there are only 2 bookings actually created: the prototypes in the BookingFactory
-    }    
+        assert b1 instanceof BadmintonBooking && ((BadmintonBooking) b1).courtRoom == 5;
+        assert b4 instanceof ZumbaBooking && ((ZumbaBooking) b4).classRoom == 12;
+        assert BookingFactory.build("Tennis", "GHI789", 1) == null;
+        assert BookingFactory.build(BookingType.BADMINTON, "GHI123", 7).bookingID.equals("GHI123");
+
+        Booking pooled = BookingFactory.acquire(BookingType.BADMINTON, "JKL123", 3);
+        BookingFactory.release(pooled);
+        assert pooled.bookingID == null && ((BadmintonBooking) pooled).courtRoom == 0;
+        assert BookingFactory.acquire(BookingType.BADMINTON, "JKL456", 4) == pooled;
+        boolean debug = Boolean.getBoolean("prototype.pool.debug");
+        assert BookingFactory.outstanding() == (debug ? 1 : 0);
+        ByteArrayOutputStream leaks = new ByteArrayOutputStream();
+        BookingFactory.reportLeaks(new PrintStream(leaks));
+        assert leaks.toString().contains("Booking acquired here") == debug;
+        BookingFactory.release(pooled);
+        assert BookingFactory.outstanding() == 0;
+
+        BookingPool<ZumbaBooking> debugPool = new BookingPool<>(() -> new ZumbaBooking(), 4, true);
+        ZumbaBooking z = debugPool.acquire();
+        debugPool.acquire();
+        assert debugPool.outstanding() == 2;
+        debugPool.release(z);
+        assert debugPool.outstanding() == 1;
+        try {
+            debugPool.release(z);
+            assert false : "double release must be detected";
+        } catch (IllegalStateException expected) { }
+        System.out.println("All assertions passed!");
+    }
+
+    // clone of a prototype vs. a fresh construction (which asks for the current date and logs)
+    static void benchmark(int n) {
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        // bookings escape into this array, so the JIT cannot optimize their allocation away
+        Booking[] kept = new Booking[1024];
+        try {
+            for (int round = 0; round < 5; ++round) {
+                long sink = 0;
+                long t0 = System.nanoTime();
+                for (int i = 0; i < n; ++i) {
+                    kept[i & 1023] = BookingFactory.build(BookingType.BADMINTON, "ID", i);
+                    sink += kept[i & 1023].bookingID.length();
+                }
+                long t1 = System.nanoTime();
+                for (int i = 0; i < n; ++i) {
+                    BadmintonBooking b = new BadmintonBooking("ID");
+                    b.courtRoom = i;
+                    kept[i & 1023] = b;
+                    sink += b.bookingID.length();
+                }
+                long t2 = System.nanoTime();
+                console.printf("round %d: clone %.1f ns/op, fresh construction %.1f ns/op (%d)%n",
+                        round, (t1 - t0) / (double) n, (t2 - t1) / (double) n, sink);
+            }
+        } finally {
+            System.setOut(console);
+        }
+        benchmarkPooling(n, kept);
+    }
+
+    // 1024 bookings in flight: each new booking replaces (and, when pooled, releases) the oldest one
+    static void benchmarkPooling(int n, Booking[] kept) {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long self = Thread.currentThread().getId();
+        for (int i = 0; i < kept.length; ++i) kept[i] = BookingFactory.acquire(BookingType.BADMINTON, "ID", i);
+        for (int round = 0; round < 5; ++round) {
+            long sink = 0;
+            long a0 = threads.getThreadAllocatedBytes(self);
+            long t0 = System.nanoTime();
+            for (int i = 0; i < n; ++i) {
+                BookingFactory.release(kept[i & 1023]);
+                kept[i & 1023] = BookingFactory.acquire(BookingType.BADMINTON, "ID", i);
+                sink += kept[i & 1023].bookingID.length();
+            }
+            long t1 = System.nanoTime();
+            long a1 = threads.getThreadAllocatedBytes(self);
+            for (int i = 0; i < n; ++i) {
+                kept[i & 1023] = BookingFactory.build(BookingType.BADMINTON, "ID", i);
+                sink += kept[i & 1023].bookingID.length();
+            }
+            long t2 = System.nanoTime();
+            long a2 = threads.getThreadAllocatedBytes(self);
+            System.out.printf("round %d: pooled %.1f ns/op %.1f B/op, cloned %.1f ns/op %.1f B/op (%d)%n",
+                    round, (t1 - t0) / (double) n, (a1 - a0) / (double) n,
+                    (t2 - t1) / (double) n, (a2 - a1) / (double) n, sink);
+            for (int i = 0; i < kept.length; ++i) kept[i] = BookingFactory.acquire(BookingType.BADMINTON, "ID", i);
+        }
+    }
 }
 
 abstract class Booking {
@@ -30,6 +137,10 @@ abstract class Booking {
         System.out.println("A new Booking is created on " + this.dateCreated);
     }
     abstract public Booking clone();
+    // back to the state of a fresh clone, before the booking is recycled
+    void reset() {
+        bookingID = null;
+    }
     public String bookingID;
     public LocalDate dateCreated;
 }
@@ -46,6 +157,11 @@ class BadmintonBooking extends Booking {
         b.courtRoom = this.courtRoom;
         return b;
     }
+    @Override
+    void reset() {
+        super.reset();
+        courtRoom = 0;
+    }
     public int courtRoom;
 }
 
@@ -61,29 +177,184 @@ class ZumbaBooking extends Booking {
         b.classRoom = this.classRoom;
         return b;
     }
+    @Override
+    void reset() {
+        super.reset();
+        classRoom = 0;
+    }
     public int classRoom;
 }
 
+interface BookingCreator {
+    Booking create(String bookingID, int room);
+}
+
+// The built-in booking kinds. Building through the enum skips the String lookup entirely
+enum BookingType {
+    BADMINTON("Badminton", (bookingID, room) -> {
+        BadmintonBooking result = BookingFactory.badmintonBookingPrototype.clone();
+        result.bookingID = bookingID;
+        result.courtRoom = room;
+        return result;
+    }),
+    ZUMBA_CLASS("ZumbaClass", (bookingID, room) -> {
+        ZumbaBooking result = BookingFactory.ZumbaBookingPrototype.clone();
+        result.bookingID = bookingID;
+        result.classRoom = room;
+        return result;
+    });
+
+    BookingType(String key, BookingCreator creator) {
+        this.key = key;
+        this.creator = creator;
+    }
+    final String key;
+    final BookingCreator creator;
+}
+
+/**
+ * New kinds of bookings can be registered at startup with `register`, usually with
+ * a creator that clones a prototype of its own.
+ * Callers on a hot path should `resolve` the type once and keep the BookingCreator,
+ * or use the BookingType overload, instead of looking the String up on every call.
+ */
 class BookingFactory {
-    private static ZumbaBooking ZumbaBookingPrototype = new ZumbaBooking("");
-    private static BadmintonBooking badmintonBookingPrototype = new BadmintonBooking("");
+    static ZumbaBooking ZumbaBookingPrototype = new ZumbaBooking("");
+    static BadmintonBooking badmintonBookingPrototype = new BadmintonBooking("");
+    private static final boolean POOL_DEBUG = Boolean.getBoolean("prototype.pool.debug");
+    private static final BookingPool<BadmintonBooking> badmintonPool =
+            new BookingPool<>(() -> badmintonBookingPrototype.clone(), 1024, POOL_DEBUG);
+    private static final BookingPool<ZumbaBooking> zumbaPool =
+            new BookingPool<>(() -> ZumbaBookingPrototype.clone(), 1024, POOL_DEBUG);
+    private static final Map<String, BookingCreator> registry = new ConcurrentHashMap<>();
+    static {
+        for (BookingType t : BookingType.values()) register(t.key, t.creator);
+        if (POOL_DEBUG) Runtime.getRuntime().addShutdownHook(new Thread(() -> reportLeaks(System.err)));
+    }
+
+    static void register(String type, BookingCreator creator) {
+        if (registry.putIfAbsent(type, creator) != null) {
+            throw new IllegalArgumentException("Booking type " + type + " is already registered");
+        }
+    }
+
+    static BookingCreator resolve(String type) {
+        return registry.get(type);
+    }
+
     public static Booking build(String type, String bookingID, int room) {
+        BookingCreator creator = registry.get(type);
+        return creator == null ? null : creator.create(bookingID, room);
+    }
+
+    public static Booking build(BookingType type, String bookingID, int room) {
+        return type.creator.create(bookingID, room);
+    }
+
+    // Like build, but the booking must be given back with `release` once it is no longer used
+    public static Booking acquire(BookingType type, String bookingID, int room) {
         switch (type) {
-            case "Badminton": {
-                BadmintonBooking result = badmintonBookingPrototype.clone();
+            case BADMINTON: {
+                BadmintonBooking result = badmintonPool.acquire();
                 result.bookingID = bookingID;
                 result.courtRoom = room;
                 return result;
             }
-            case "ZumbaClass": {
-                ZumbaBooking result = ZumbaBookingPrototype.clone();
+            case ZUMBA_CLASS: {
+                ZumbaBooking result = zumbaPool.acquire();
                 result.bookingID = bookingID;
                 result.classRoom = room;
                 return result;
             }
             default:
-                return null;
+                throw new IllegalArgumentException("Booking type " + type + " is not pooled");
         }
     }
+
+    public static void release(Booking b) {
+        if (b instanceof BadmintonBooking) badmintonPool.release((BadmintonBooking) b);
+        else if (b instanceof ZumbaBooking) zumbaPool.release((ZumbaBooking) b);
+        else throw new IllegalArgumentException("Booking " + b.bookingID + " is not pooled");
+    }
+
+    // debug mode only (-Dprototype.pool.debug=true): bookings acquired but not released yet
+    static int outstanding() {
+        return badmintonPool.outstanding() + zumbaPool.outstanding();
+    }
+
+    // prints where each outstanding booking was acquired, nothing when there are none or debug mode is off
+    static void reportLeaks(PrintStream out) {
+        int leaks = outstanding();
+        if (leaks == 0) return;
+        out.println(leaks + " pooled bookings were never released");
+        badmintonPool.reportLeaks(out);
+        zumbaPool.reportLeaks(out);
+    }
 }
 
+/**
+ * Each thread first recycles from its own small cache, which needs no synchronization,
+ * and only falls back to the shared, bounded queue when the cache is empty (acquire) or full (release).
+ * Bookings that do not fit anywhere are left to the garbage collector.
+ * In debug mode every acquired booking is remembered together with the stack trace of its
+ * acquisition, so that leaks (never released) and double releases can be found.
+ */
+class BookingPool<T extends Booking> {
+    BookingPool(Supplier<T> factory, int capacity, boolean debug) {
+        this.factory = factory;
+        this.shared = new ArrayBlockingQueue<>(capacity);
+        this.outstanding = debug ? new ConcurrentHashMap<>() : null;
+    }
+
+    T acquire() {
+        LocalCache cache = local.get();
+        T b;
+        if (cache.size > 0) {
+            b = cache.pop();
+        } else {
+            b = shared.poll();
+            if (b == null) b = factory.get();
+        }
+        if (outstanding != null) outstanding.put(b, new Throwable("Booking acquired here"));
+        return b;
+    }
+
+    void release(T b) {
+        if (outstanding != null && outstanding.remove(b) == null) {
+            throw new IllegalStateException("Booking released twice or not acquired from this pool");
+        }
+        b.reset();
+        LocalCache cache = local.get();
+        if (cache.size < cache.items.length) cache.push(b);
+        else shared.offer(b);
+    }
+
+    // debug mode only: bookings acquired but not released yet
+    int outstanding() {
+        return outstanding == null ? 0 : outstanding.size();
+    }
+
+    void reportLeaks(PrintStream out) {
+        if (outstanding == null) return;
+        for (Throwable acquiredAt : outstanding.values()) acquiredAt.printStackTrace(out);
+    }
+
+    private class LocalCache {
+        @SuppressWarnings("unchecked")
+        T pop() {
+            T b = (T) items[--size];
+            items[size] = null;
+            return b;
+        }
+        void push(T b) {
+            items[size++] = b;
+        }
+        final Object[] items = new Object[16];
+        int size;
+    }
+
+    private final Supplier<T> factory;
+    private final ArrayBlockingQueue<T> shared;
+    private final Map<T, Throwable> outstanding;
+    private final ThreadLocal<LocalCache> local = ThreadLocal.withInitial(LocalCache::new);
+}
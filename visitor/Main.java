@@ -1,5 +1,17 @@
 package visitor;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
 /**
  * You are organizing a champion league.
  * Every match has two players. A Match can either be a Single Match,
@@ -32,10 +44,36 @@ package visitor;
  * of the match will be resolved at run-time. Because we have `visit` FOR each concrete class,
  * and we define `accept` IN each concrete class, the compiler will not complain
  *
+ * PrintDepth keeps its state (depth) in the visitor, so it can only walk the tree on one thread.
+ * A SubtreeVisitor instead returns a result per subtree and combines the results of the two brackets
+ * of a Tournament. The two brackets are independent, so ParallelVisitor can hand big ones over
+ * to a ForkJoinPool and combine the results once both are done.
+ *
+ * Neither PrintDepth nor the sequential fold recurse on the call stack: a DepthIterator walks the
+ * bracket with an explicit stack and reports the depth of every match, so even a ladder of
+ * hundreds of thousands of Tournaments can be printed. Anything that only needs the match and its
+ * depth can implement DepthVisitor and be driven by DepthIterator.walk.
+ *
+ * A ResultVisitor<R> gets the depth as an argument and returns its result instead of keeping
+ * state, so one instance can be shared between threads and its results combined by the caller,
+ * e.g. WinsPerPlayerVisitor. IntVisitor is the same for int results, without boxing them.
+ * Match is sealed: these visitors can skip the double dispatch and call visit(match, depth),
+ * which switches on the `kind` of the match. Both calls are then direct and the JIT can inline
+ * them, where m.accept(v, depth) goes through two virtual calls that see every visitor.
+ * Run `java visitor.Main bench` to compare both.
+ * They visit the brackets of a Tournament by calling themselves, one stack frame per level: fine for
+ * a balanced bracket, but a ladder needs DepthIterator or ParallelVisitor.sequential.
+ *
  */
 
 public class Main {
     public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals("bench")) {
+            int maxMatches = args.length > 1 ? Integer.parseInt(args[1]) : 1_000_000;
+            benchmark(maxMatches);
+            benchmarkDispatch(maxMatches);
+            return;
+        }
         Player[] players = new Player[8];
         for (int i = 0; i < 8; ++i) players[i] = new Player(String.valueOf(i));
 
@@ -60,6 +98,133 @@ public class Main {
          *  0 1  2 3   4 5  6 7
          */
         t.accept(new PrintDepth());
+        StringBuilder printed = new StringBuilder();
+        t.accept(new PrintDepth(printed));
+        assert printed.toString().startsWith("[0, 4, depth=0]\n[0, 2, depth=1]\n[0, 1, depth=2]\n");
+
+        DepthStats stats = ParallelVisitor.run(t, new DepthStatsVisitor(), 1);
+        assert stats.matches == 7 && stats.maxDepth == 2 && stats.totalDepth == 10;
+        Map<Player, Integer> wins = ParallelVisitor.run(t, new WinCounter(), 1);
+        assert wins.get(players[0]) == 3 && wins.get(players[4]) == 2 && wins.get(players[6]) == 1;
+
+        int[] depths = new int[7];
+        int visited = 0;
+        for (DepthIterator it = new DepthIterator(t); it.hasNext(); ++visited) {
+            Match m = it.next();
+            depths[visited] = it.depth();
+            assert visited != 2 || m == m1;
+        }
+        assert Arrays.equals(depths, new int[] {0, 1, 2, 2, 1, 2, 2});
+
+        // a ladder: every Tournament has a SingleMatch on one side, far deeper than the call stack allows
+        Match ladder = ladder(200_000, players);
+        printed.setLength(0);
+        ladder.accept(new PrintDepth(printed));
+        assert printed.indexOf("[0, 1, depth=200000]\n[2, 3, depth=200000]\n[2, 3, depth=199999]\n") > 0;
+        DepthStats ladderStats = ParallelVisitor.sequential(ladder, 0, new DepthStatsVisitor());
+        assert ladderStats.matches == 400_001 && ladderStats.maxDepth == 200_000;
+
+        HeightVisitor height = new HeightVisitor();
+        assert height.visit(t, 0) == 2 && t.accept(height, 0) == 2 && height.visit(t2, 1) == 2;
+        WinsVisitor winsOf0 = new WinsVisitor(players[0]);
+        assert winsOf0.visit(t, 0) == 3 && t.accept(winsOf0, 0) == 3;
+        assert new WinsVisitor(players[6]).visit(t, 0) == 1;
+        Map<Player, Integer> winsPerPlayer = new WinsPerPlayerVisitor().visit(t, 0);
+        assert winsPerPlayer.equals(t.accept(new WinsPerPlayerVisitor(), 0));
+        assert winsPerPlayer.size() == 4 && winsPerPlayer.get(players[0]) == 3 && winsPerPlayer.get(players[6]) == 1;
+        for (Player p : winsPerPlayer.keySet()) assert winsPerPlayer.get(p) == new WinsVisitor(p).visit(t, 0);
+        System.out.println("All assertions passed!");
+    }
+
+    // a balanced bracket with `singleMatches` leaves, i.e. 2 * singleMatches - 1 matches
+    static Match bracket(int singleMatches, Player[] players) {
+        if (singleMatches == 1) return new SingleMatch(players[0], players[1], true);
+        int half = singleMatches / 2;
+        return new Tournament(bracket(half, players), bracket(singleMatches - half, players), true);
+    }
+
+    // `levels` Tournaments, each with the rest of the ladder as its left bracket
+    static Match ladder(int levels, Player[] players) {
+        Match m = new SingleMatch(players[0], players[1], true);
+        for (int i = 0; i < levels; ++i) m = new Tournament(m, new SingleMatch(players[2], players[3], true), true);
+        return m;
+    }
+
+    static void legacyPrintDepth(Match m, int depth, PrintStream out) {
+        out.println(m.info(depth));
+        if (m instanceof SingleMatch) return;
+        Tournament t = (Tournament) m;
+        legacyPrintDepth(t.leftBracket, depth + 1, out);
+        legacyPrintDepth(t.rightBracket, depth + 1, out);
+    }
+
+    // accept/visit double dispatch against the switch on Match.kind, with the same two visitors
+    static void benchmarkDispatch(int maxMatches) {
+        Player[] players = { new Player("0"), new Player("1") };
+        IntVisitor height = new HeightVisitor();
+        IntVisitor wins = new WinsVisitor(players[0]);
+        // the same visitors, going through m.accept(v, depth) for every match
+        IntVisitor acceptHeight = new HeightVisitor() {
+            @Override
+            public int visit(Match m, int depth) {
+                return m.accept(this, depth);
+            }
+        };
+        IntVisitor acceptWins = new WinsVisitor(players[0]) {
+            @Override
+            public int visit(Match m, int depth) {
+                return m.accept(this, depth);
+            }
+        };
+        for (int matches = 1000; matches <= maxMatches; matches *= 10) {
+            Match tree = bracket((matches + 1) / 2, players);
+            for (int round = 0; round < 5; ++round) {
+                long sink = 0;
+                long t0 = System.nanoTime();
+                sink += acceptHeight.visit(tree, 0) + acceptWins.visit(tree, 0);
+                long t1 = System.nanoTime();
+                sink += height.visit(tree, 0) + wins.visit(tree, 0);
+                long t2 = System.nanoTime();
+                System.out.printf("%d matches, round %d: double dispatch %.2f, switch dispatch %.2f ns/match (%d)%n",
+                        matches, round, (t1 - t0) / (2.0 * matches), (t2 - t1) / (2.0 * matches), sink);
+            }
+        }
+    }
+
+    // visitor traversal of brackets with 10^3 .. maxMatches matches
+    static void benchmark(int maxMatches) {
+        Player[] players = { new Player("0"), new Player("1") };
+        PrintStream nowhere = new PrintStream(OutputStream.nullOutputStream());
+        StringBuilder out = new StringBuilder();
+        for (int matches = 1000; matches <= maxMatches; matches *= 10) {
+            Match tree = bracket((matches + 1) / 2, players);
+            for (int round = 0; round < 3; ++round) {
+                long t0 = System.nanoTime();
+                legacyPrintDepth(tree, 0, nowhere);
+                long t1 = System.nanoTime();
+                out.setLength(0);
+                tree.accept(new PrintDepth(out));
+                long t2 = System.nanoTime();
+                DepthStats sequential = ParallelVisitor.sequential(tree, 0, new DepthStatsVisitor());
+                long t3 = System.nanoTime();
+                DepthStats parallel = ParallelVisitor.run(tree, new DepthStatsVisitor(), 10_000);
+                long t4 = System.nanoTime();
+                // the default PrintDepth(), i.e. System.out, with System.out sent nowhere
+                PrintStream stdout = System.out;
+                System.setOut(nowhere);
+                try {
+                    tree.accept(new PrintDepth());
+                } finally {
+                    System.setOut(stdout);
+                }
+                long t5 = System.nanoTime();
+                assert sequential.totalDepth == parallel.totalDepth;
+                System.out.printf("%d matches, round %d: println %.1f, PrintDepth to System.out %.1f, "
+                        + "to StringBuilder %.1f, DepthStats sequential %.1f, parallel %.1f ns/match%n",
+                        matches, round, (t1 - t0) / (double) matches, (t5 - t4) / (double) matches,
+                        (t2 - t1) / (double) matches, (t3 - t2) / (double) matches, (t4 - t3) / (double) matches);
+            }
+        }
     }
 }
 
@@ -70,9 +235,14 @@ class Player {
     public String name;
 }
 
-abstract class Match {
-    Match() {}
-    Match(Player a, Player b, boolean aWins) {
+abstract sealed class Match permits Tournament, SingleMatch {
+    static final int SINGLE_MATCH = 0, TOURNAMENT = 1;
+
+    Match(int kind) {
+        this.kind = kind;
+    }
+    Match(int kind, Player a, Player b, boolean aWins) {
+        this.kind = kind;
         playerA = a;
         playerB = b;
         if (aWins) winner = a; else winner = b;
@@ -82,18 +252,35 @@ abstract class Match {
         return "[" + playerA.name + ", " + playerB.name + ", depth=" + depth + "]";
     }
 
+    // same text as info(depth), appended piece by piece
+    void appendInfo(Appendable out, int depth) throws IOException {
+        out.append('[').append(playerA.name).append(", ").append(playerB.name)
+                .append(", depth=").append(Integer.toString(depth)).append(']');
+    }
+
     abstract void accept(Visitor v);
 
+    abstract <R> R accept(ResultVisitor<R> v, int depth);
+
+    abstract int accept(IntVisitor v, int depth);
+
+    // number of matches in this subtree
+    abstract int size();
+
     public Player playerA, playerB, winner;
+    // SINGLE_MATCH or TOURNAMENT
+    final int kind;
 }
 
-class Tournament extends Match {
+final class Tournament extends Match {
     Tournament(Match l, Match r, boolean lWins) {
+        super(TOURNAMENT);
         leftBracket = l;
         rightBracket = r;
         playerA = l.winner;
         playerB = r.winner;
         if (lWins) winner = playerA; else winner = playerB;
+        size = 1 + l.size() + r.size();
     }
 
     @Override
@@ -101,17 +288,48 @@ class Tournament extends Match {
         v.visit(this);
     }
 
+    @Override
+    <R> R accept(ResultVisitor<R> v, int depth) {
+        return v.visit(this, depth);
+    }
+
+    @Override
+    int accept(IntVisitor v, int depth) {
+        return v.visit(this, depth);
+    }
+
+    @Override
+    int size() {
+        return size;
+    }
+
     public Match leftBracket, rightBracket;
+    private final int size;
 }
 
-class SingleMatch extends Match {
+final class SingleMatch extends Match {
     SingleMatch(Player a, Player b, boolean aWins) {
-        super(a,b,aWins);
+        super(SINGLE_MATCH, a, b, aWins);
     }
     @Override
     void accept(Visitor v) {
         v.visit(this);
     }
+
+    @Override
+    <R> R accept(ResultVisitor<R> v, int depth) {
+        return v.visit(this, depth);
+    }
+
+    @Override
+    int accept(IntVisitor v, int depth) {
+        return v.visit(this, depth);
+    }
+
+    @Override
+    int size() {
+        return 1;
+    }
 }
 
 interface Visitor {
@@ -119,18 +337,307 @@ interface Visitor {
     void visit(Tournament t);
 }
 
-class PrintDepth implements Visitor {
+/**
+ * Prints to System.out by default. Output for a PrintStream is collected in a buffer and printed
+ * in batches of BATCH chars, the rest when the traversal ends; any other Appendable
+ * (e.g. a StringBuilder) is written to directly.
+ */
+class PrintDepth implements Visitor, DepthVisitor {
+    static final int BATCH = 1 << 16;
+
+    PrintDepth() {
+        this(System.out);
+    }
+    PrintDepth(PrintStream stream) {
+        this.stream = stream;
+        this.buffer = new StringBuilder(BATCH + 256);
+        this.out = buffer;
+    }
+    PrintDepth(Appendable out) {
+        this.stream = null;
+        this.buffer = null;
+        this.out = out;
+    }
     public void visit(SingleMatch m) {
-        System.out.println(m.info(depth));
+        visit(m, 0);
+        flush();
     }
     public void visit(Tournament t) {
-        System.out.println(t.info(depth));
-        depth++;
-        t.leftBracket.accept(this);
-        t.rightBracket.accept(this);
-        depth--;
+        DepthIterator.walk(t, this);
+        flush();
+    }
+    // depth is relative to the match this visitor was accepted by
+    public void visit(Match m, int depth) {
+        try {
+            m.appendInfo(out, this.depth + depth);
+            out.append('\n');
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (buffer != null && buffer.length() >= BATCH) flush();
+    }
+    // prints what is left in the buffer, nothing to do for an Appendable given by the caller
+    void flush() {
+        if (stream == null) return;
+        stream.append(buffer);
+        buffer.setLength(0);
     }
     int depth = 0;
+    private final Appendable out;
+    private final StringBuilder buffer;
+    private final PrintStream stream;
+}
+
+/**
+ * A visitor that returns a result for every match, given its depth. The Tournament method decides
+ * whether and how to visit the brackets, usually by calling visit(bracket, depth + 1).
+ */
+interface ResultVisitor<R> {
+    R visit(SingleMatch m, int depth);
+    R visit(Tournament t, int depth);
+
+    // dispatch without accept: Match is sealed, so `kind` covers every case
+    default R visit(Match m, int depth) {
+        switch (m.kind) {
+            case Match.TOURNAMENT:
+                return visit((Tournament) m, depth);
+            case Match.SINGLE_MATCH:
+                return visit((SingleMatch) m, depth);
+            default:
+                throw new AssertionError("Unknown kind of match " + m.kind);
+        }
+    }
+}
+
+// ResultVisitor for int results
+interface IntVisitor {
+    int visit(SingleMatch m, int depth);
+    int visit(Tournament t, int depth);
+
+    default int visit(Match m, int depth) {
+        switch (m.kind) {
+            case Match.TOURNAMENT:
+                return visit((Tournament) m, depth);
+            case Match.SINGLE_MATCH:
+                return visit((SingleMatch) m, depth);
+            default:
+                throw new AssertionError("Unknown kind of match " + m.kind);
+        }
+    }
+}
+
+// depth of the deepest SingleMatch
+class HeightVisitor implements IntVisitor {
+    public int visit(SingleMatch m, int depth) {
+        return depth;
+    }
+    public int visit(Tournament t, int depth) {
+        return Math.max(visit(t.leftBracket, depth + 1), visit(t.rightBracket, depth + 1));
+    }
+}
+
+// number of matches won by one player
+class WinsVisitor implements IntVisitor {
+    WinsVisitor(Player player) {
+        this.player = player;
+    }
+    public int visit(SingleMatch m, int depth) {
+        return m.winner == player ? 1 : 0;
+    }
+    public int visit(Tournament t, int depth) {
+        int wins = t.winner == player ? 1 : 0;
+        return wins + visit(t.leftBracket, depth + 1) + visit(t.rightBracket, depth + 1);
+    }
+    private final Player player;
+}
+
+// number of matches won by every player who won any, all from one traversal
+class WinsPerPlayerVisitor implements ResultVisitor<Map<Player, Integer>> {
+    public Map<Player, Integer> visit(SingleMatch m, int depth) {
+        Map<Player, Integer> wins = new HashMap<>();
+        wins.put(m.winner, 1);
+        return wins;
+    }
+    public Map<Player, Integer> visit(Tournament t, int depth) {
+        Map<Player, Integer> wins = visit(t.leftBracket, depth + 1);
+        visit(t.rightBracket, depth + 1).forEach((p, n) -> wins.merge(p, n, Integer::sum));
+        wins.merge(t.winner, 1, Integer::sum);
+        return wins;
+    }
+}
+
+interface DepthVisitor {
+    void visit(Match m, int depth);
+}
+
+// a growable stack of (match, depth) pairs, used instead of the call stack
+class MatchStack {
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    void push(Match m, int depth) {
+        if (size == matches.length) {
+            matches = Arrays.copyOf(matches, size << 1);
+            depths = Arrays.copyOf(depths, size << 1);
+        }
+        matches[size] = m;
+        depths[size++] = depth;
+    }
+
+    int topDepth() {
+        return depths[size - 1];
+    }
+
+    Match pop() {
+        Match result = matches[--size];
+        matches[size] = null;
+        return result;
+    }
+
+    private Match[] matches = new Match[16];
+    private int[] depths = new int[16];
+    private int size;
+}
+
+/**
+ * Pre-order walk that also knows the depth of every match, relative to the root it was started on:
+ * depth() is the depth of the match last returned by next().
+ * Only the right brackets still to be visited are on the stack, at most one per level.
+ */
+class DepthIterator {
+    DepthIterator(Match root) {
+        stack.push(root, 0);
+    }
+
+    static void walk(Match root, DepthVisitor v) {
+        for (DepthIterator it = new DepthIterator(root); it.hasNext(); ) {
+            Match m = it.next();
+            v.visit(m, it.depth());
+        }
+    }
+
+    boolean hasNext() {
+        return !stack.isEmpty();
+    }
+
+    Match next() {
+        depth = stack.topDepth();
+        Match result = stack.pop();
+        if (result instanceof Tournament) {
+            Tournament t = (Tournament) result;
+            stack.push(t.rightBracket, depth + 1);
+            stack.push(t.leftBracket, depth + 1);
+        }
+        return result;
+    }
+
+    int depth() {
+        return depth;
+    }
+
+    private final MatchStack stack = new MatchStack();
+    private int depth;
+}
+
+// Implementations must not keep mutable state: subtrees may be visited on different threads
+interface SubtreeVisitor<R> {
+    R visit(SingleMatch m, int depth);
+    R visit(Tournament t, int depth, R left, R right);
 }
 
+@SuppressWarnings("serial") // tasks are never serialized
+class ParallelVisitor<R> extends RecursiveTask<R> {
+    ParallelVisitor(Match match, int depth, SubtreeVisitor<R> v, int threshold) {
+        this.match = match;
+        this.depth = depth;
+        this.v = v;
+        this.threshold = threshold;
+    }
+
+    static <R> R run(Match root, SubtreeVisitor<R> v, int threshold) {
+        return run(root, v, threshold, ForkJoinPool.commonPool());
+    }
+
+    // Tournaments with at least `threshold` matches are split into two tasks
+    static <R> R run(Match root, SubtreeVisitor<R> v, int threshold, ForkJoinPool pool) {
+        return pool.invoke(new ParallelVisitor<>(root, 0, v, threshold));
+    }
+
+    // post-order without recursion: a Tournament is pushed back with its depth complemented (~depth < 0)
+    // and combined once the results of both brackets are on top of `results`
+    static <R> R sequential(Match root, int rootDepth, SubtreeVisitor<R> v) {
+        MatchStack stack = new MatchStack();
+        List<R> results = new ArrayList<>();
+        stack.push(root, rootDepth);
+        while (!stack.isEmpty()) {
+            int depth = stack.topDepth();
+            Match m = stack.pop();
+            if (depth < 0) {
+                R right = results.remove(results.size() - 1);
+                R left = results.remove(results.size() - 1);
+                results.add(v.visit((Tournament) m, ~depth, left, right));
+            } else if (m instanceof SingleMatch) {
+                results.add(v.visit((SingleMatch) m, depth));
+            } else {
+                Tournament t = (Tournament) m;
+                stack.push(t, ~depth);
+                stack.push(t.rightBracket, depth + 1);
+                stack.push(t.leftBracket, depth + 1);
+            }
+        }
+        return results.get(0);
+    }
 
+    @Override
+    protected R compute() {
+        if (match instanceof SingleMatch || match.size() < threshold) return sequential(match, depth, v);
+        Tournament t = (Tournament) match;
+        ParallelVisitor<R> left = new ParallelVisitor<>(t.leftBracket, depth + 1, v, threshold);
+        left.fork();
+        R right = new ParallelVisitor<>(t.rightBracket, depth + 1, v, threshold).compute();
+        return v.visit(t, depth, left.join(), right);
+    }
+
+    private final Match match;
+    private final int depth;
+    private final SubtreeVisitor<R> v;
+    private final int threshold;
+}
+
+class DepthStats {
+    DepthStats(int matches, int maxDepth, long totalDepth) {
+        this.matches = matches;
+        this.maxDepth = maxDepth;
+        this.totalDepth = totalDepth;
+    }
+    public final int matches, maxDepth;
+    public final long totalDepth;
+}
+
+class DepthStatsVisitor implements SubtreeVisitor<DepthStats> {
+    public DepthStats visit(SingleMatch m, int depth) {
+        return new DepthStats(1, depth, depth);
+    }
+    public DepthStats visit(Tournament t, int depth, DepthStats left, DepthStats right) {
+        return new DepthStats(1 + left.matches + right.matches,
+                Math.max(left.maxDepth, right.maxDepth),
+                depth + left.totalDepth + right.totalDepth);
+    }
+}
+
+// number of matches won by each player
+class WinCounter implements SubtreeVisitor<Map<Player, Integer>> {
+    public Map<Player, Integer> visit(SingleMatch m, int depth) {
+        Map<Player, Integer> wins = new HashMap<>();
+        wins.put(m.winner, 1);
+        return wins;
+    }
+    public Map<Player, Integer> visit(Tournament t, int depth, Map<Player, Integer> left, Map<Player, Integer> right) {
+        Map<Player, Integer> big = left.size() >= right.size() ? left : right;
+        Map<Player, Integer> small = big == left ? right : left;
+        for (Map.Entry<Player, Integer> e : small.entrySet()) big.merge(e.getKey(), e.getValue(), Integer::sum);
+        big.merge(t.winner, 1, Integer::sum);
+        return big;
+    }
+}